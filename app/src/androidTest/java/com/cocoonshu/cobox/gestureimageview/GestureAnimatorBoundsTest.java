@@ -0,0 +1,100 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.RectF;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Instrumented test of the bounds the animator caches by version stamp, on
+ * the native Matrix and RectF the JVM test android.jar only stubs. A cached
+ * rect is marked, the mark survives until a change makes it stale.
+ * @Author Cocoonshu
+ * @Date   2016-12-06 16:55:14
+ */
+@RunWith(AndroidJUnit4.class)
+public class GestureAnimatorBoundsTest {
+
+    private static final float MARK  = -12345f;
+    private static final float ERROR = 1e-3f;
+
+    private GestureAnimator mAnimator = null;
+
+    @Before
+    public void setUp() {
+        mAnimator = new GestureAnimator();
+        mAnimator.setImageRect(0, 0, 4000, 3000);
+        mAnimator.setDisplayRect(0, 0, 1080, 1920);
+        mAnimator.revert();
+    }
+
+    @Test
+    public void reusesTheDrawingOutBoundUntilStale() {
+        RectF bounds = mAnimator.getDrawingOutBound();
+        assertEquals(0f, bounds.left, ERROR);
+        assertEquals(555f, bounds.top, ERROR);
+        assertEquals(1080f, bounds.right, ERROR);
+        assertEquals(1365f, bounds.bottom, ERROR);
+
+        markBounds();
+        assertSame(bounds, mAnimator.getDrawingOutBound());
+        assertEquals(MARK, mAnimator.getDrawingOutBound().left, 0f);
+
+        // Set on every frame with the same values, nothing goes stale
+        mAnimator.setDisplayRect(0, 0, 1080, 1920);
+        mAnimator.compute(System.nanoTime());
+        assertEquals(MARK, mAnimator.getDrawingOutBound().left, 0f);
+
+        mAnimator.scroll(10, 0);
+        assertEquals(-10f, mAnimator.getDrawingOutBound().left, ERROR);
+
+        markBounds();
+        mAnimator.scale(2f, 0, 0);
+        assertEquals(-20f, mAnimator.getDrawingOutBound().left, ERROR);
+        assertEquals(2140f, mAnimator.getDrawingOutBound().right, ERROR);
+
+        markBounds();
+        mAnimator.rotate(90f, 0, 0);
+        assertEquals(-2730f, mAnimator.getDrawingOutBound().left, ERROR);
+
+        markBounds();
+        mAnimator.setDisplayRect(0, 0, 1920, 1080);
+        assertEquals(-2730f, mAnimator.getDrawingOutBound().left, ERROR);
+
+        markBounds();
+        mAnimator.setImageRect(0, 0, 2000, 1500);
+        assertEquals(-1920f, mAnimator.getDrawingOutBound().left, ERROR);
+    }
+
+    @Test
+    public void computesTheSuggestScaleAgainOnlyWhenStale() {
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+
+        // Asked for another rect, then for the display rect again
+        assertEquals(0.5f, mAnimator.getCurrentSuggestScale(new RectF(0, 0, 2000, 2000)), ERROR);
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+
+        mAnimator.setDisplayRect(0, 0, 1080, 1920);
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+
+        // A quarter turn fits the 3000px side in the 1080px width
+        mAnimator.rotate(90f);
+        assertEquals(0.36f, mAnimator.getCurrentSuggestScale(), ERROR);
+
+        mAnimator.setDisplayRect(0, 0, 1920, 1080);
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+
+        mAnimator.setImageRect(0, 0, 400, 300);
+        assertEquals(2.7f, mAnimator.getCurrentSuggestScale(), ERROR);
+    }
+
+    private void markBounds() {
+        mAnimator.getDrawingOutBound().left = MARK;
+    }
+}
@@ -0,0 +1,172 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark of the memory saving mode, decoding the same photo
+ * through the loader as ARGB_8888 and as RGB_565
+ * @Author Cocoonshu
+ * @Date   2016-12-06 09:48:25
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemorySavingTest {
+
+    private static final String TAG          = "MemorySavingTest";
+    private static final int    IMAGE_WIDTH  = 3000;
+    private static final int    IMAGE_HEIGHT = 2000;
+    private static final int    ROUND_COUNT  = 7;
+    private static final long   LOAD_TIMEOUT = 10000;
+
+    private Context mContext = null;
+    private File    mJpeg    = null;
+    private File    mPng     = null;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mJpeg    = createImage("photo.jpg", Bitmap.CompressFormat.JPEG);
+        mPng     = createImage("photo.png", Bitmap.CompressFormat.PNG);
+    }
+
+    @After
+    public void tearDown() {
+        ImageLoader.getMetrics().setOnLoadMetricsListener(null);
+        mJpeg.delete();
+        mPng.delete();
+    }
+
+    @Test
+    public void halvesTheBytesOfAJpeg() throws InterruptedException {
+        long[] fullTimes   = new long[ROUND_COUNT];
+        long[] savingTimes = new long[ROUND_COUNT];
+        long   fullBytes   = 0;
+        long   savingBytes = 0;
+
+        // Alternate the modes so both see the same page cache and CPU frequency
+        for (int round = 0; round < ROUND_COUNT; round++) {
+            LoadMetrics full = load(mJpeg, false);
+            assertEquals(Bitmap.Config.ARGB_8888, full.getDecodedConfig());
+            assertEquals(0, full.getSavedBytes());
+            fullBytes        = full.getDecodedBytes();
+            fullTimes[round] = full.getStageTime(LoadMetrics.STAGE_DECODE);
+
+            LoadMetrics saving = load(mJpeg, true);
+            assertEquals(Bitmap.Config.RGB_565, saving.getDecodedConfig());
+            assertEquals(saving.getDecodedBytes(), saving.getSavedBytes());
+            savingBytes        = saving.getDecodedBytes();
+            savingTimes[round] = saving.getStageTime(LoadMetrics.STAGE_DECODE);
+        }
+
+        assertEquals((long) IMAGE_WIDTH * IMAGE_HEIGHT * 4, fullBytes);
+        assertEquals(fullBytes / 2, savingBytes);
+        Log.i(TAG, String.format("%dx%d JPEG: ARGB_8888 %d bytes in %.1f ms, RGB_565 %d bytes in %.1f ms (medians of %d)",
+                IMAGE_WIDTH, IMAGE_HEIGHT, fullBytes, median(fullTimes) / 1e6f,
+                savingBytes, median(savingTimes) / 1e6f, ROUND_COUNT));
+    }
+
+    @Test
+    public void keepsThePreferredConfigOfAPng() throws InterruptedException {
+        LoadMetrics saving = load(mPng, true);
+        assertEquals(Bitmap.Config.ARGB_8888, saving.getDecodedConfig());
+        assertEquals(0, saving.getSavedBytes());
+    }
+
+    /**
+     * Load the image at its own size, out of the memory cache, and hand back its metrics
+     */
+    private LoadMetrics load(File image, boolean isMemorySaving) throws InterruptedException {
+        final CountDownLatch latch    = new CountDownLatch(1);
+        final LoadMetrics[]  recorded = new LoadMetrics[1];
+        ImageLoader.getMetrics().setOnLoadMetricsListener(new LoaderMetrics.OnLoadMetricsListener() {
+
+            @Override
+            public void onLoadMetrics(LoadMetrics metrics) {
+                recorded[0] = metrics;
+                latch.countDown();
+            }
+
+        });
+
+        LoadOptions options = new LoadOptions()
+                .setTargetSize(IMAGE_WIDTH, IMAGE_HEIGHT)
+                .setMemoryCacheEnabled(false)
+                .setMemorySavingEnabled(isMemorySaving);
+        ImageLoader.decodeImage(mContext, Uri.fromFile(image), options, new ReleasingListener());
+        assertTrue("load timed out", latch.await(LOAD_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNotNull(recorded[0]);
+        assertTrue(recorded[0].isSuccessful());
+        return recorded[0];
+    }
+
+    private File createImage(String name, Bitmap.CompressFormat format) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Paint  paint  = new Paint();
+        paint.setShader(new LinearGradient(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT,
+                Color.rgb(200, 80, 20), Color.rgb(20, 120, 220), Shader.TileMode.CLAMP));
+        new Canvas(bitmap).drawPaint(paint);
+
+        File         file   = new File(mContext.getCacheDir(), name);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            bitmap.compress(format, 90, output);
+        } finally {
+            output.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static class ReleasingListener implements ImageLoader.OnFinishedListener {
+
+        @Override
+        public void onProgress(float progress) {
+        }
+
+        @Override
+        public void onPreview(Bitmap preview) {
+            ImageLoader.releaseBitmap(preview);
+        }
+
+        @Override
+        public void onSuccessed(Bitmap bitmap) {
+            ImageLoader.releaseBitmap(bitmap);
+        }
+
+        @Override
+        public void onFailed() {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.cocoonshu.cobox.graphic;
+
+import android.graphics.Matrix;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark of one animation frame of the pose, against the
+ * Matrix calls of the polygon Vector it replaced, both on the native Matrix
+ * @author Cocoonshu
+ * @date 2016-12-06 15:40:31
+ */
+@RunWith(AndroidJUnit4.class)
+public class PoseBenchmarkTest {
+
+    private static final String  TAG           = "PoseBenchmarkTest";
+    private static final int     FRAME_COUNT   = 200000;
+    private static final int     ROUND_COUNT   = 7;
+    private static final int     POLYGON_COUNT = 3;
+    private static final float[] UNIT_POLYGON  = new float[] {0, 0, 0, 1, 1, 0};
+
+    private Matrix  mStartTransform   = new Matrix();
+    private Matrix  mFinalTransform   = new Matrix();
+    private Matrix  mCurrentTransform = new Matrix();
+    private Pose    mCurrentPose      = new Pose();
+    private Pose    mFinalPose        = new Pose();
+    private float[] mCurrentDirection = new float[3];
+    private float[] mCurrentPosition  = new float[3];
+    private float[] mCurrentPolygon   = new float[6];
+    private float[] mFinalDirection   = new float[3];
+    private float[] mFinalPosition    = new float[3];
+    private float[] mFinalPolygon     = new float[6];
+
+    @Test
+    public void computesAFrameFasterThanThePolygon() {
+        mStartTransform.setScale(0.27f, 0.27f);
+        mStartTransform.postTranslate(0, 555);
+        mFinalTransform.set(mStartTransform);
+        mFinalTransform.postRotate(90, 540, 960);
+        mFinalPose.set(mFinalTransform);
+
+        long[] poseTimes    = new long[ROUND_COUNT];
+        long[] polygonTimes = new long[ROUND_COUNT];
+        for (int round = 0; round < ROUND_COUNT; round++) {
+            poseTimes[round]    = timePoseFrames();
+            polygonTimes[round] = timePolygonFrames();
+        }
+
+        long poseTime    = median(poseTimes);
+        long polygonTime = median(polygonTimes);
+        Log.i(TAG, String.format("ns per frame: pose %.1f, polygon %.1f (medians of %d rounds of %d frames)",
+                (float) poseTime / FRAME_COUNT, (float) polygonTime / FRAME_COUNT, ROUND_COUNT, FRAME_COUNT));
+        assertTrue(poseTime + " ns against " + polygonTime + " ns", poseTime < polygonTime);
+    }
+
+    /**
+     * GestureAnimator.compute: read the current pose, move it, write it back.
+     * The final pose is kept up to date by the operations, not read per frame.
+     */
+    private long timePoseFrames() {
+        long startTime = System.nanoTime();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            mCurrentTransform.set(mStartTransform);
+            mCurrentPose.set(mCurrentTransform);
+            mCurrentPose.forward(mFinalPose, Pose.ForwardFactor);
+            mCurrentPose.toMatrix(mCurrentTransform);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * GestureAnimator.compute before the pose: map both vectors from their
+     * matrices, move the current polygon, then solve the matrix from it
+     */
+    private long timePolygonFrames() {
+        long startTime = System.nanoTime();
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            mCurrentTransform.set(mStartTransform);
+            applyPolygon(mCurrentTransform, mCurrentDirection, mCurrentPosition, mCurrentPolygon);
+            applyPolygon(mFinalTransform, mFinalDirection, mFinalPosition, mFinalPolygon);
+            for (int i = 0; i < POLYGON_COUNT * 2; i++) {
+                mCurrentPolygon[i] += (mFinalPolygon[i] - mCurrentPolygon[i]) * Pose.ForwardFactor;
+            }
+            mCurrentTransform.setPolyToPoly(UNIT_POLYGON, 0, mCurrentPolygon, 0, POLYGON_COUNT);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static void applyPolygon(Matrix matrix, float[] direction, float[] position, float[] polygon) {
+        direction[0] = 0f; direction[1] = 1f; direction[2] = 0f;
+        position[0]  = 0f; position[1]  = 0f; position[2]  = 1f;
+        System.arraycopy(UNIT_POLYGON, 0, polygon, 0, UNIT_POLYGON.length);
+        matrix.mapVectors(direction);
+        matrix.mapPoints(position);
+        matrix.mapPoints(polygon);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
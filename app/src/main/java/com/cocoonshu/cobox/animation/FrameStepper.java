@@ -0,0 +1,40 @@
+package com.cocoonshu.cobox.animation;
+
+/**
+ * Turns a smoothing factor tuned for one 60 fps frame into the factor of the
+ * time really elapsed since the previous frame, alpha = 1 - (1 - factor) ^ (dt / 16.67ms).
+ * An animation settles in the same time at any refresh rate, and a late frame
+ * catches up instead of stretching the animation out.
+ * @author Cocoonshu
+ * @date 2016-11-30 10:12:45
+ */
+public class FrameStepper {
+
+    public static final long REFERENCE_FRAME_NANOS = 1000000000L / 60;
+
+    private long mLastFrameTime = 0;
+
+    /**
+     * @param factor         part of the remaining distance to go in a reference frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return part of the remaining distance to go in this frame, 0 if no time elapsed
+     */
+    public float step(float factor, long frameTimeNanos) {
+        // The first frame of an animation has no previous frame to measure from
+        long elapsedNanos = mLastFrameTime == 0 ? REFERENCE_FRAME_NANOS : frameTimeNanos - mLastFrameTime;
+        mLastFrameTime = frameTimeNanos;
+        if (elapsedNanos <= 0) {
+            return 0;
+        } else if (elapsedNanos == REFERENCE_FRAME_NANOS) {
+            return factor;
+        }
+        return 1f - (float) Math.pow(1f - factor, (double) elapsedNanos / REFERENCE_FRAME_NANOS);
+    }
+
+    /**
+     * Forget the previous frame, once the animation settled
+     */
+    public void reset() {
+        mLastFrameTime = 0;
+    }
+}
@@ -7,11 +7,12 @@ package com.cocoonshu.cobox.animation;
  */
 public class Smoother {
 
-    private float   mFactor           = 1E-2F;
-    private float   mError            = 1E-3F;
-    private float   mCurrentValue     = 0;
-    private float   mDestinationValue = 0;
-    private boolean mIsBypassed       = false;
+    private float        mFactor           = 1E-2F;
+    private float        mError            = 1E-3F;
+    private float        mCurrentValue     = 0;
+    private float        mDestinationValue = 0;
+    private boolean      mIsBypassed       = false;
+    private FrameStepper mStepper          = new FrameStepper();
 
     public Smoother() {
 
@@ -31,12 +32,34 @@ public class Smoother {
     }
 
     public boolean smooth() {
+        return smooth(System.nanoTime());
+    }
+
+    /**
+     * Step towards the destination for the time elapsed since the previous frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean smooth(long frameTimeNanos) {
+        float   factor        = mStepper.step(mFactor, frameTimeNanos);
+        boolean hasMoreFrames = factor > 0 ? step(factor) : !isFinished();
+        if (!hasMoreFrames) {
+            mStepper.reset();
+        }
+        return hasMoreFrames;
+    }
+
+    public boolean isFinished() {
+        return mCurrentValue == mDestinationValue;
+    }
+
+    private boolean step(float factor) {
         if (mIsBypassed) {
             mCurrentValue = mDestinationValue;
             return false;
         }
 
-        float targetValue = mCurrentValue + (mDestinationValue - mCurrentValue) * mFactor;
+        float targetValue = mCurrentValue + (mDestinationValue - mCurrentValue) * factor;
         if (targetValue == mCurrentValue) {
             mCurrentValue = mDestinationValue;
             return false;
@@ -52,6 +75,7 @@ public class Smoother {
     }
 
     public void forceFinish() {
+        mStepper.reset();
         mCurrentValue = mDestinationValue;
     }
 
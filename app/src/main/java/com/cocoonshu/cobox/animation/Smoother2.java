@@ -7,13 +7,14 @@ package com.cocoonshu.cobox.animation;
  */
 public class Smoother2 {
 
-    private float   mFactor            = 1E-2F;
-    private float   mError             = 2E-3F;
-    private float   mCurrentValueX     = 0;
-    private float   mCurrentValueY     = 0;
-    private float   mDestinationValueX = 0;
-    private float   mDestinationValueY = 0;
-    private boolean mIsBypassed        = false;
+    private float        mFactor            = 1E-2F;
+    private float        mError             = 2E-3F;
+    private float        mCurrentValueX     = 0;
+    private float        mCurrentValueY     = 0;
+    private float        mDestinationValueX = 0;
+    private float        mDestinationValueY = 0;
+    private boolean      mIsBypassed        = false;
+    private FrameStepper mStepper           = new FrameStepper();
 
     public Smoother2() {
 
@@ -33,14 +34,36 @@ public class Smoother2 {
     }
 
     public boolean smooth() {
+        return smooth(System.nanoTime());
+    }
+
+    /**
+     * Step towards the destination for the time elapsed since the previous frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean smooth(long frameTimeNanos) {
+        float   factor        = mStepper.step(mFactor, frameTimeNanos);
+        boolean hasMoreFrames = factor > 0 ? step(factor) : !isFinished();
+        if (!hasMoreFrames) {
+            mStepper.reset();
+        }
+        return hasMoreFrames;
+    }
+
+    public boolean isFinished() {
+        return mCurrentValueX == mDestinationValueX && mCurrentValueY == mDestinationValueY;
+    }
+
+    private boolean step(float factor) {
         if (mIsBypassed) {
             mCurrentValueX = mDestinationValueX;
             mCurrentValueY = mDestinationValueY;
             return false;
         }
 
-        float targetValueX = mCurrentValueX + (mDestinationValueX - mCurrentValueX) * mFactor;
-        float targetValueY = mCurrentValueY + (mDestinationValueY - mCurrentValueY) * mFactor;
+        float targetValueX = mCurrentValueX + (mDestinationValueX - mCurrentValueX) * factor;
+        float targetValueY = mCurrentValueY + (mDestinationValueY - mCurrentValueY) * factor;
         if (mCurrentValueX == targetValueX && mCurrentValueY == targetValueY) {
             mCurrentValueX = mDestinationValueX;
             mCurrentValueY = mDestinationValueY;
@@ -59,6 +82,7 @@ public class Smoother2 {
     }
 
     public void forceFinish() {
+        mStepper.reset();
         mCurrentValueX = mDestinationValueX;
         mCurrentValueY = mDestinationValueY;
     }
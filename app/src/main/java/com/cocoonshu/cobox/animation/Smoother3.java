@@ -7,15 +7,16 @@ package com.cocoonshu.cobox.animation;
  */
 public class Smoother3 {
 
-    private float   mFactor            = 1E-2F;
-    private float   mError             = 1E-3F;
-    private float   mCurrentValueX     = 0;
-    private float   mCurrentValueY     = 0;
-    private float   mCurrentValueZ     = 0;
-    private float   mDestinationValueX = 0;
-    private float   mDestinationValueY = 0;
-    private float   mDestinationValueZ = 0;
-    private boolean mIsBypassed        = false;
+    private float        mFactor            = 1E-2F;
+    private float        mError             = 1E-3F;
+    private float        mCurrentValueX     = 0;
+    private float        mCurrentValueY     = 0;
+    private float        mCurrentValueZ     = 0;
+    private float        mDestinationValueX = 0;
+    private float        mDestinationValueY = 0;
+    private float        mDestinationValueZ = 0;
+    private boolean      mIsBypassed        = false;
+    private FrameStepper mStepper           = new FrameStepper();
 
     public Smoother3() {
 
@@ -35,6 +36,28 @@ public class Smoother3 {
     }
 
     public boolean smooth() {
+        return smooth(System.nanoTime());
+    }
+
+    /**
+     * Step towards the destination for the time elapsed since the previous frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean smooth(long frameTimeNanos) {
+        float   factor        = mStepper.step(mFactor, frameTimeNanos);
+        boolean hasMoreFrames = factor > 0 ? step(factor) : !isFinished();
+        if (!hasMoreFrames) {
+            mStepper.reset();
+        }
+        return hasMoreFrames;
+    }
+
+    public boolean isFinished() {
+        return mCurrentValueX == mDestinationValueX && mCurrentValueY == mDestinationValueY && mCurrentValueZ == mDestinationValueZ;
+    }
+
+    private boolean step(float factor) {
         if (mIsBypassed) {
             mCurrentValueX = mDestinationValueX;
             mCurrentValueY = mDestinationValueY;
@@ -42,9 +65,9 @@ public class Smoother3 {
             return false;
         }
 
-        float targetX = mCurrentValueX + (mDestinationValueX - mCurrentValueX) * mFactor;
-        float targetY = mCurrentValueY + (mDestinationValueY - mCurrentValueY) * mFactor;
-        float targetZ = mCurrentValueZ + (mDestinationValueZ - mCurrentValueZ) * mFactor;
+        float targetX = mCurrentValueX + (mDestinationValueX - mCurrentValueX) * factor;
+        float targetY = mCurrentValueY + (mDestinationValueY - mCurrentValueY) * factor;
+        float targetZ = mCurrentValueZ + (mDestinationValueZ - mCurrentValueZ) * factor;
         if (mCurrentValueX == targetX && mCurrentValueY == targetY && mCurrentValueZ == targetZ) {
             mCurrentValueX = mDestinationValueX;
             mCurrentValueY = mDestinationValueY;
@@ -66,6 +89,7 @@ public class Smoother3 {
     }
 
     public void forceFinish() {
+        mStepper.reset();
         mCurrentValueX = mDestinationValueX;
         mCurrentValueY = mDestinationValueY;
         mCurrentValueZ = mDestinationValueZ;
@@ -7,17 +7,18 @@ package com.cocoonshu.cobox.animation;
  */
 public class Smoother4 {
 
-    private float   mFactor                 = 1E-2F;
-    private float   mError                  = 1E-3F;
-    private float   mCurrentValueLeft       = 0;
-    private float   mCurrentValueRight      = 0;
-    private float   mCurrentValueTop        = 0;
-    private float   mCurrentValueBottom     = 0;
-    private float   mDestinationValueLeft   = 0;
-    private float   mDestinationValueRight  = 0;
-    private float   mDestinationValueTop    = 0;
-    private float   mDestinationValueBottom = 0;
-    private boolean mIsBypassed             = false;
+    private float        mFactor                 = 1E-2F;
+    private float        mError                  = 1E-3F;
+    private float        mCurrentValueLeft       = 0;
+    private float        mCurrentValueRight      = 0;
+    private float        mCurrentValueTop        = 0;
+    private float        mCurrentValueBottom     = 0;
+    private float        mDestinationValueLeft   = 0;
+    private float        mDestinationValueRight  = 0;
+    private float        mDestinationValueTop    = 0;
+    private float        mDestinationValueBottom = 0;
+    private boolean      mIsBypassed             = false;
+    private FrameStepper mStepper                = new FrameStepper();
 
     public Smoother4() {
 
@@ -37,6 +38,29 @@ public class Smoother4 {
     }
 
     public boolean smooth() {
+        return smooth(System.nanoTime());
+    }
+
+    /**
+     * Step towards the destination for the time elapsed since the previous frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean smooth(long frameTimeNanos) {
+        float   factor        = mStepper.step(mFactor, frameTimeNanos);
+        boolean hasMoreFrames = factor > 0 ? step(factor) : !isFinished();
+        if (!hasMoreFrames) {
+            mStepper.reset();
+        }
+        return hasMoreFrames;
+    }
+
+    public boolean isFinished() {
+        return mCurrentValueLeft == mDestinationValueLeft && mCurrentValueRight == mDestinationValueRight
+            && mCurrentValueTop == mDestinationValueTop && mCurrentValueBottom == mDestinationValueBottom;
+    }
+
+    private boolean step(float factor) {
         if (mIsBypassed) {
             mCurrentValueLeft   = mDestinationValueLeft;
             mCurrentValueRight  = mDestinationValueRight;
@@ -45,10 +69,10 @@ public class Smoother4 {
             return false;
         }
 
-        float targetLeft   = mCurrentValueLeft + (mDestinationValueLeft - mCurrentValueLeft) * mFactor;
-        float targetRight  = mCurrentValueRight + (mDestinationValueRight - mCurrentValueRight) * mFactor;
-        float targetTop    = mCurrentValueTop + (mDestinationValueTop - mCurrentValueTop) * mFactor;
-        float targetBottom = mCurrentValueBottom + (mDestinationValueBottom - mCurrentValueBottom) * mFactor;
+        float targetLeft   = mCurrentValueLeft + (mDestinationValueLeft - mCurrentValueLeft) * factor;
+        float targetRight  = mCurrentValueRight + (mDestinationValueRight - mCurrentValueRight) * factor;
+        float targetTop    = mCurrentValueTop + (mDestinationValueTop - mCurrentValueTop) * factor;
+        float targetBottom = mCurrentValueBottom + (mDestinationValueBottom - mCurrentValueBottom) * factor;
         if (mCurrentValueLeft == targetLeft && mCurrentValueRight == targetRight && mCurrentValueTop == targetTop && mCurrentValueBottom == targetBottom) {
             mCurrentValueLeft   = mDestinationValueLeft;
             mCurrentValueRight  = mDestinationValueRight;
@@ -78,6 +102,7 @@ public class Smoother4 {
     }
 
     public void forceFinish() {
+        mStepper.reset();
         mCurrentValueLeft   = mDestinationValueLeft;
         mCurrentValueRight  = mDestinationValueRight;
         mCurrentValueTop    = mDestinationValueTop;
@@ -7,12 +7,13 @@ package com.cocoonshu.cobox.animation;
  */
 public class SmootherN {
 
-    private float   mFactor            = 1E-1F;
-    private float   mError             = 1E-2F;
-    private float[] mCurrentValues     = null;
-    private float[] mDestinationValues = null;
-    private float[] mTargetValues      = null;
-    private boolean mIsBypassed        = false;
+    private float        mFactor            = 1E-1F;
+    private float        mError             = 1E-2F;
+    private float[]      mCurrentValues     = null;
+    private float[]      mDestinationValues = null;
+    private float[]      mTargetValues      = null;
+    private boolean      mIsBypassed        = false;
+    private FrameStepper mStepper           = new FrameStepper();
 
     public SmootherN(int n) {
         mCurrentValues     = new float[n];
@@ -37,6 +38,34 @@ public class SmootherN {
     }
 
     public boolean smooth() {
+        return smooth(System.nanoTime());
+    }
+
+    /**
+     * Step towards the destination for the time elapsed since the previous frame
+     * @param frameTimeNanos time of the frame being computed, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean smooth(long frameTimeNanos) {
+        float   factor        = mStepper.step(mFactor, frameTimeNanos);
+        boolean hasMoreFrames = factor > 0 ? step(factor) : !isFinished();
+        if (!hasMoreFrames) {
+            mStepper.reset();
+        }
+        return hasMoreFrames;
+    }
+
+    public boolean isFinished() {
+        int loopSize = mCurrentValues.length;
+        for (int i = 0; i < loopSize; i++) {
+            if (mCurrentValues[i] != mDestinationValues[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean step(float factor) {
         if (mIsBypassed) {
             int loopSize = mCurrentValues.length;
             for (int i = 0; i < loopSize; i++) {
@@ -50,7 +79,7 @@ public class SmootherN {
         {
             int loopSize = mCurrentValues.length;
             for (int i = 0; i < loopSize; i++) {
-                mTargetValues[i] = mCurrentValues[i] + (mDestinationValues[i] - mCurrentValues[i]) * mFactor;
+                mTargetValues[i] = mCurrentValues[i] + (mDestinationValues[i] - mCurrentValues[i]) * factor;
                 precisionBlock &= (mCurrentValues[i] == mTargetValues[i]);
                 mCurrentValues[i] = mTargetValues[i];
                 errorSum += Math.abs(mDestinationValues[i] - mCurrentValues[i]);
@@ -72,6 +101,7 @@ public class SmootherN {
     }
 
     public void forceFinish() {
+        mStepper.reset();
         int loopSize = mCurrentValues.length;
         for (int i = 0; i < loopSize; i++) {
             mCurrentValues[i] = mDestinationValues[i];
@@ -0,0 +1,249 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte budgeted LRU memory cache of decoded bitmaps
+ * @Author Cocoonshu
+ * @Date   2016-11-14 10:21:36
+ */
+public class BitmapCache {
+
+    public static final String TAG = "BitmapCache";
+
+    private LinkedHashMap<Key, Bitmap> mEntries       = new LinkedHashMap<Key, Bitmap>(16, 0.75f, true);
+    private long                       mMaxSize       = 0;
+    private long                       mSize          = 0;
+    private long                       mHitCount      = 0;
+    private long                       mMissCount     = 0;
+    private long                       mPutCount      = 0;
+    private long                       mEvictionCount = 0;
+    private OnEntryRemovedListener     mListener      = null;
+
+    /**
+     * Notified out of the cache lock when a bitmap is evicted or replaced
+     */
+    public interface OnEntryRemovedListener {
+        void onEntryRemoved(Key key, Bitmap bitmap);
+    }
+
+    /**
+     * Cache key of a decoded bitmap, a same image decoded with
+     * different target size or config is a different entry.
+     */
+    public static final class Key {
+
+        private final Uri           mUri;
+        private final int           mWidth;
+        private final int           mHeight;
+        private final Bitmap.Config mConfig;
+
+        public Key(Uri uri, int width, int height, Bitmap.Config config) {
+            mUri    = uri;
+            mWidth  = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        public final Uri getUri() {
+            return mUri;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return mWidth == other.mWidth
+                        && mHeight == other.mHeight
+                        && mConfig == other.mConfig
+                        && (mUri == null ? other.mUri == null : mUri.equals(other.mUri));
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mUri == null ? 0 : mUri.hashCode();
+            hash = hash * 31 + mWidth;
+            hash = hash * 31 + mHeight;
+            hash = hash * 31 + (mConfig == null ? 0 : mConfig.hashCode());
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return mUri + "@" + mWidth + "x" + mHeight + "/" + mConfig;
+        }
+    }
+
+    public BitmapCache(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public final synchronized void setOnEntryRemovedListener(OnEntryRemovedListener listener) {
+        mListener = listener;
+    }
+
+    public final Bitmap get(Key key) {
+        if (key == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Bitmap bitmap = mEntries.get(key);
+            if (bitmap != null && bitmap.isRecycled()) {
+                // Someone has recycled the bitmap behind us
+                mEntries.remove(key);
+                mSize -= sizeOf(bitmap);
+                bitmap = null;
+            }
+            if (bitmap != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+            return bitmap;
+        }
+    }
+
+    public final void put(Key key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        long                         bitmapSize = sizeOf(bitmap);
+        List<Map.Entry<Key, Bitmap>> removed    = new ArrayList<Map.Entry<Key, Bitmap>>();
+        synchronized (this) {
+            if (bitmapSize > mMaxSize) {
+                // Never let a single huge image flush the whole cache
+                return;
+            }
+            mPutCount++;
+            mSize += bitmapSize;
+            Bitmap previous = mEntries.put(key, bitmap);
+            if (previous != null) {
+                mSize -= sizeOf(previous);
+                if (previous != bitmap) {
+                    removed.add(new AbstractMap.SimpleEntry<Key, Bitmap>(key, previous));
+                }
+            }
+            trimToSizeLocked(mMaxSize, removed);
+        }
+        notifyEntriesRemoved(removed);
+    }
+
+    public final Bitmap remove(Key key) {
+        if (key == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Bitmap previous = mEntries.remove(key);
+            if (previous != null) {
+                mSize -= sizeOf(previous);
+            }
+            return previous;
+        }
+    }
+
+    public final boolean contains(Bitmap bitmap) {
+        synchronized (this) {
+            return mEntries.containsValue(bitmap);
+        }
+    }
+
+    public final void trimToSize(long maxSize) {
+        List<Map.Entry<Key, Bitmap>> removed = new ArrayList<Map.Entry<Key, Bitmap>>();
+        synchronized (this) {
+            trimToSizeLocked(maxSize, removed);
+        }
+        notifyEntriesRemoved(removed);
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final void setMaxSize(long maxSize) {
+        synchronized (this) {
+            mMaxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    public final synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized long getSize() {
+        return mSize;
+    }
+
+    public final synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public final synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public final synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public final synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = mHitCount + mMissCount;
+        int  hitRate  = accesses != 0 ? (int) (100 * mHitCount / accesses) : 0;
+        return String.format("BitmapCache[size=%d/%d, count=%d, hits=%d, misses=%d, evictions=%d, hitRate=%d%%]",
+                mSize, mMaxSize, mEntries.size(), mHitCount, mMissCount, mEvictionCount, hitRate);
+    }
+
+    private void trimToSizeLocked(long maxSize, List<Map.Entry<Key, Bitmap>> outRemoved) {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Map.Entry<Key, Bitmap> eldest = iterator.next();
+            outRemoved.add(new AbstractMap.SimpleEntry<Key, Bitmap>(eldest));
+            iterator.remove();
+            mSize -= sizeOf(eldest.getValue());
+            mEvictionCount++;
+        }
+    }
+
+    private void notifyEntriesRemoved(List<Map.Entry<Key, Bitmap>> removed) {
+        OnEntryRemovedListener listener = null;
+        synchronized (this) {
+            listener = mListener;
+        }
+        if (listener == null) {
+            return;
+        }
+        for (Map.Entry<Key, Bitmap> entry : removed) {
+            listener.onEntryRemoved(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+}
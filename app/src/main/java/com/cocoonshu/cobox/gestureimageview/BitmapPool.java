@@ -0,0 +1,186 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Byte budgeted pool of mutable bitmaps no longer used by anyone, the decoders
+ * reuse their memory through Options.inBitmap instead of allocating new bitmaps.
+ * Bitmaps are bucketed by config and allocation size, a request takes the
+ * smallest pooled bitmap large enough to hold it.
+ * @Author Cocoonshu
+ * @Date   2016-11-18 10:46:23
+ */
+public class BitmapPool {
+
+    public  static final String TAG          = "BitmapPool";
+    private static final int    MAX_OVERSIZE = 4;
+
+    private Map<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>> mBuckets       = new HashMap<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>>();
+    private LinkedList<Bitmap>                                       mLruBitmaps    = new LinkedList<Bitmap>();
+    private long                                                     mMaxSize       = 0;
+    private long                                                     mSize          = 0;
+    private long                                                     mHitCount      = 0;
+    private long                                                     mMissCount     = 0;
+    private long                                                     mPutCount      = 0;
+    private long                                                     mEvictionCount = 0;
+
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Take a pooled bitmap which can hold an image of the size and config,
+     * the content of the returned bitmap is undefined.
+     * @return null if no pooled bitmap fits
+     */
+    public final synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0 || config == null) {
+            return null;
+        }
+
+        TreeMap<Integer, LinkedList<Bitmap>>   bucket       = mBuckets.get(config);
+        int                                    requiredSize = width * height * getBytesPerPixel(config);
+        Map.Entry<Integer, LinkedList<Bitmap>> entry        = bucket != null ? bucket.ceilingEntry(requiredSize) : null;
+        if (entry == null || entry.getKey() > (long) requiredSize * MAX_OVERSIZE) {
+            // Never waste a huge bitmap on a thumbnail
+            mMissCount++;
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().removeLast();
+        if (entry.getValue().isEmpty()) {
+            bucket.remove(entry.getKey());
+        }
+        mLruBitmaps.remove(bitmap);
+        mSize -= bitmap.getAllocationByteCount();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap to the pool, nobody may touch it afterwards.
+     * A bitmap the pool cannot reuse is recycled right away.
+     * @return true if the bitmap is pooled
+     */
+    public final boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return false;
+        }
+
+        int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (mLruBitmaps.contains(bitmap)) {
+                // Released twice, it is already here
+                return true;
+            } else if (bitmap.isMutable() && bitmap.getConfig() != null && size <= mMaxSize) {
+                TreeMap<Integer, LinkedList<Bitmap>> bucket = mBuckets.get(bitmap.getConfig());
+                if (bucket == null) {
+                    bucket = new TreeMap<Integer, LinkedList<Bitmap>>();
+                    mBuckets.put(bitmap.getConfig(), bucket);
+                }
+                LinkedList<Bitmap> bitmaps = bucket.get(size);
+                if (bitmaps == null) {
+                    bitmaps = new LinkedList<Bitmap>();
+                    bucket.put(size, bitmaps);
+                }
+                bitmaps.addLast(bitmap);
+                mLruBitmaps.addLast(bitmap);
+                mSize += size;
+                mPutCount++;
+                trimToSize(mMaxSize);
+                return true;
+            }
+        }
+
+        bitmap.recycle();
+        return false;
+    }
+
+    public final synchronized void trimToSize(long maxSize) {
+        while (mSize > maxSize && !mLruBitmaps.isEmpty()) {
+            Bitmap                               eldest  = mLruBitmaps.removeFirst();
+            int                                  size    = eldest.getAllocationByteCount();
+            TreeMap<Integer, LinkedList<Bitmap>> bucket  = mBuckets.get(eldest.getConfig());
+            LinkedList<Bitmap>                   bitmaps = bucket != null ? bucket.get(size) : null;
+            if (bitmaps != null) {
+                bitmaps.remove(eldest);
+                if (bitmaps.isEmpty()) {
+                    bucket.remove(size);
+                }
+            }
+            mSize -= size;
+            mEvictionCount++;
+            eldest.recycle();
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public final synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Bytes held by the pooled bitmaps
+     */
+    public final synchronized long getSize() {
+        return mSize;
+    }
+
+    public final synchronized int getCount() {
+        return mLruBitmaps.size();
+    }
+
+    public final synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public final synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public final synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public final synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public final synchronized float getHitRate() {
+        long requests = mHitCount + mMissCount;
+        return requests != 0 ? (float) mHitCount / requests : 0f;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BitmapPool[size=%d/%d, count=%d, hits=%d, misses=%d, puts=%d, evictions=%d, hitRate=%d%%]",
+                mSize, mMaxSize, mLruBitmaps.size(), mHitCount, mMissCount, mPutCount, mEvictionCount,
+                (int) (100 * getHitRate()));
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+}
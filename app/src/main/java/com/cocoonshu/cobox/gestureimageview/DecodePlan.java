@@ -0,0 +1,137 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+/**
+ * How to decode an image of known bounds for a target size.
+ * The image is sampled down by a power of two sample size first, then
+ * scaled by the decoder itself through a density pair, so the decoding
+ * never allocates a full size bitmap nor a second scaled copy.
+ * This class is plain Java and can be driven by a JVM test.
+ * @Author Cocoonshu
+ * @Date   2016-11-18 16:20:44
+ */
+public class DecodePlan {
+
+    /**
+     * A residual scale larger than this is not worth a filtering pass,
+     * the sampled bitmap is kept as it is.
+     */
+    public static final float RESCALE_THRESHOLD = 0.9f;
+
+    private final int mSampleSize;
+    private final int mDensity;
+    private final int mTargetDensity;
+    private final int mWidth;
+    private final int mHeight;
+
+    private DecodePlan(int sampleSize, int density, int targetDensity, int width, int height) {
+        mSampleSize    = sampleSize;
+        mDensity       = density;
+        mTargetDensity = targetDensity;
+        mWidth         = width;
+        mHeight        = height;
+    }
+
+    /**
+     * Plan the decoding of an image shown inside a target size
+     * @param imageWidth   width of the image bounds
+     * @param imageHeight  height of the image bounds
+     * @param targetWidth  width the image is fitted into, 0 for no limit
+     * @param targetHeight height the image is fitted into, 0 for no limit
+     * @param maxZoom      zoom in factor over the fitted size which should still look sharp
+     * @param maxPixels    pixel count the decoded bitmap never exceeds, 0 for no limit
+     */
+    public static DecodePlan compute(int imageWidth, int imageHeight, int targetWidth, int targetHeight, float maxZoom, long maxPixels) {
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            return new DecodePlan(1, 0, 0, imageWidth, imageHeight);
+        }
+
+        double scale = 1.0;
+        if (targetWidth > 0 && targetHeight > 0) {
+            double fitScale = Math.min((double) targetWidth / imageWidth, (double) targetHeight / imageHeight);
+            scale = Math.min(1.0, fitScale * Math.max(1f, maxZoom));
+        }
+        if (maxPixels > 0 && (double) imageWidth * imageHeight * scale * scale > maxPixels) {
+            scale = Math.sqrt((double) maxPixels / ((double) imageWidth * imageHeight));
+        }
+
+        // Rounded, as a fitted size such as 4000 * (1001 / 4000) may be a hair under its integer
+        int desiredWidth  = Math.max(1, (int) Math.round(imageWidth * scale));
+        int desiredHeight = Math.max(1, (int) Math.round(imageHeight * scale));
+        int sampleSize    = 1;
+        while (imageWidth / (sampleSize * 2) >= desiredWidth
+                && imageHeight / (sampleSize * 2) >= desiredHeight) {
+            sampleSize *= 2;
+        }
+
+        // One density ratio scales both sides, it is taken on the longer one to lose the least precision
+        int     sampledWidth  = (imageWidth + sampleSize - 1) / sampleSize;
+        int     sampledHeight = (imageHeight + sampleSize - 1) / sampleSize;
+        int     sampledSide   = sampledWidth >= sampledHeight ? sampledWidth : sampledHeight;
+        int     desiredSide   = sampledWidth >= sampledHeight ? desiredWidth : desiredHeight;
+        float   residualScale = (float) desiredSide / sampledSide;
+        boolean isOverLimit   = maxPixels > 0 && (long) sampledWidth * sampledHeight > maxPixels;
+        if (residualScale >= RESCALE_THRESHOLD && !isOverLimit) {
+            return new DecodePlan(sampleSize, 0, 0, sampledWidth, sampledHeight);
+        }
+
+        int scaledWidth  = scaleSize(sampledWidth, desiredSide, sampledSide);
+        int scaledHeight = scaleSize(sampledHeight, desiredSide, sampledSide);
+        while (maxPixels > 0 && (long) scaledWidth * scaledHeight > maxPixels && desiredSide > 1) {
+            // The rounding of the decoder may go a few pixels over the limit
+            desiredSide--;
+            scaledWidth  = scaleSize(sampledWidth, desiredSide, sampledSide);
+            scaledHeight = scaleSize(sampledHeight, desiredSide, sampledSide);
+        }
+        return new DecodePlan(sampleSize, sampledSide, desiredSide, scaledWidth, scaledHeight);
+    }
+
+    /**
+     * Size of a side scaled through a density pair, rounded as the decoder does
+     */
+    private static int scaleSize(int size, int targetDensity, int density) {
+        return Math.max(1, (int) (size * ((float) targetDensity / density) + 0.5f));
+    }
+
+    /**
+     * Power of two value for Options.inSampleSize
+     */
+    public final int getSampleSize() {
+        return mSampleSize;
+    }
+
+    /**
+     * True if the decoder has to scale the sampled image by
+     * getTargetDensity() / getDensity() through Options.inScaled
+     */
+    public final boolean isScaled() {
+        return mDensity > 0 && mTargetDensity > 0 && mDensity != mTargetDensity;
+    }
+
+    public final int getDensity() {
+        return mDensity;
+    }
+
+    public final int getTargetDensity() {
+        return mTargetDensity;
+    }
+
+    /**
+     * Expected width of the decoded bitmap
+     */
+    public final int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Expected height of the decoded bitmap
+     */
+    public final int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DecodePlan[sampleSize=%d, density=%d/%d, size=%dx%d]",
+                mSampleSize, mTargetDensity, mDensity, mWidth, mHeight);
+    }
+}
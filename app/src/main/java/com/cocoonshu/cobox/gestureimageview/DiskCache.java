@@ -0,0 +1,598 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size capped, content addressed LRU disk cache.
+ * Every entry is a plain file named by its key, written to a temp file first and
+ * renamed into place when complete. A line based journal keeps the LRU order,
+ * the sizes and the HTTP validators, so the cache survives process death:
+ * <pre>
+ *     com.cocoonshu.cobox.DiskCache
+ *     2
+ *
+ *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6 832411 "5d8c72a5edda8" 1479720011000 1479723611000
+ *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
+ *     PARTIAL 7c4a8d09ca3762af61e59520943dc264 "a7b3-53f1" 0
+ *     DISCARD 7c4a8d09ca3762af61e59520943dc264
+ *     REMOVE 335c4c6028171cfddfbaae1a9c313c52
+ * </pre>
+ * A partial entry is an interrupted download kept to be resumed later, it is
+ * named by its key plus {@link #PARTIAL_FILE_SUFFIX} and only one writer may
+ * edit it at a time.
+ * This class only relies on java.io, so it can be driven by a plain JVM test.
+ * @Author Cocoonshu
+ * @Date   2016-11-15 14:02:18
+ */
+public class DiskCache {
+
+    public  static final String  TAG                 = "DiskCache";
+    public  static final String  JOURNAL_FILE        = "journal";
+    public  static final String  JOURNAL_FILE_TEMP   = "journal.tmp";
+    public  static final String  TEMP_FILE_SUFFIX    = ".tmp";
+    public  static final String  PARTIAL_FILE_SUFFIX = ".partial";
+    public  static final int     MAX_PARTIAL_COUNT   = 8;
+    private static final String  JOURNAL_MAGIC       = "com.cocoonshu.cobox.DiskCache";
+    private static final String  JOURNAL_VERSION     = "2";
+    private static final String  JOURNAL_VERSION_1   = "1";
+    private static final String  ACTION_CLEAN        = "CLEAN";
+    private static final String  ACTION_READ         = "READ";
+    private static final String  ACTION_REMOVE       = "REMOVE";
+    private static final String  ACTION_PARTIAL      = "PARTIAL";
+    private static final String  ACTION_DISCARD      = "DISCARD";
+    private static final String  NO_VALUE            = "-";
+    private static final int     REBUILD_THRESHOLD   = 2000;
+    private static final Charset UTF_8               = Charset.forName("UTF-8");
+    private static final char[]  HEX_DIGITS          = "0123456789abcdef".toCharArray();
+
+    private File                            mDirectory        = null;
+    private File                            mJournalFile      = null;
+    private Writer                          mJournalWriter    = null;
+    private LinkedHashMap<String, Long>     mEntries          = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private HashMap<String, Metadata>       mMetadata         = new HashMap<String, Metadata>();
+    private LinkedHashMap<String, Metadata> mPartials         = new LinkedHashMap<String, Metadata>();
+    private Set<String>                     mEditingPartials  = new HashSet<String>();
+    private long                            mMaxSize          = 0;
+    private long                            mSize             = 0;
+    private int                             mRedundantOpCount = 0;
+    private long                            mHitCount         = 0;
+    private long                            mMissCount        = 0;
+    private long                            mEvictionCount    = 0;
+
+    /**
+     * HTTP validators and freshness of an entry
+     */
+    public static final class Metadata {
+
+        private final String mETag;
+        private final long   mLastModified;
+        private final long   mExpires;
+
+        /**
+         * @param etag         the ETag of the response, null if none
+         * @param lastModified the Last-Modified time of the response, 0 if none
+         * @param expires      time the entry needs a revalidation, 0 if never
+         */
+        public Metadata(String etag, long lastModified, long expires) {
+            // The journal is space separated, an unusual ETag is simply not kept
+            mETag         = etag != null && !etag.isEmpty() && !etag.matches(".*\\s.*") && !NO_VALUE.equals(etag) ? etag : null;
+            mLastModified = lastModified > 0 ? lastModified : 0;
+            mExpires      = expires > 0 ? expires : 0;
+        }
+
+        public final String getETag() {
+            return mETag;
+        }
+
+        public final long getLastModified() {
+            return mLastModified;
+        }
+
+        public final long getExpires() {
+            return mExpires;
+        }
+
+        /**
+         * True if the entry can be revalidated by a conditional request
+         */
+        public final boolean hasValidator() {
+            return mETag != null || mLastModified > 0;
+        }
+
+        /**
+         * True if the entry is stale. It is revalidated by a conditional request
+         * if it has a validator, and downloaded again otherwise.
+         */
+        public final boolean needsRevalidation(long now) {
+            return mExpires > 0 && now >= mExpires;
+        }
+
+        public final Metadata renew(long expires) {
+            return new Metadata(mETag, mLastModified, expires);
+        }
+
+        private String encode() {
+            return (mETag != null ? mETag : NO_VALUE) + " " + mLastModified + " " + mExpires;
+        }
+
+        private static Metadata decode(String[] parts, int offset) {
+            if (parts.length < offset + 2) {
+                return null;
+            }
+            try {
+                String etag         = parts[offset];
+                long   lastModified = Long.parseLong(parts[offset + 1]);
+                long   expires      = parts.length > offset + 2 ? Long.parseLong(parts[offset + 2]) : 0;
+                return new Metadata(etag, lastModified, expires);
+            } catch (NumberFormatException exp) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Metadata[etag=" + mETag + ", lastModified=" + mLastModified + ", expires=" + mExpires + "]";
+        }
+    }
+
+    public DiskCache(File directory, long maxSize) throws IOException {
+        mDirectory   = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxSize     = maxSize;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        readJournal();
+        deleteOrphanFiles();
+        rebuildJournal();
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Hash a url into a key which is safe to be used as a file name
+     */
+    public static String hashKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[]        hash   = digest.digest(url.getBytes(UTF_8));
+            char[]        chars  = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                chars[i * 2]     = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+                chars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0F];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException exp) {
+            return String.valueOf(url.hashCode() & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Look up a committed entry
+     * @return the entry file, or null if the key is not cached
+     */
+    public synchronized File get(String key) {
+        Long size = mEntries.get(key);
+        File file = new File(mDirectory, key);
+        if (size == null) {
+            mMissCount++;
+            return null;
+        } else if (!file.exists()) {
+            // Deleted by the system or the user behind us
+            mEntries.remove(key);
+            mSize -= size;
+            appendJournal(ACTION_REMOVE, key);
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        appendJournal(ACTION_READ, key);
+        return file;
+    }
+
+    /**
+     * Create a unique temp file to write an entry into,
+     * call {@link #commit(String, File)} or {@link #abort(File)} when finished.
+     */
+    public File newTempFile(String key) throws IOException {
+        return File.createTempFile(key + ".", TEMP_FILE_SUFFIX, mDirectory);
+    }
+
+    /**
+     * Atomically publish a fully written temp file as the entry of the key
+     * @return the entry file
+     */
+    public File commit(String key, File tempFile) throws IOException {
+        return commit(key, tempFile, null);
+    }
+
+    /**
+     * Atomically publish a fully written temp file as the entry of the key
+     * @param metadata the HTTP validators of the content, may be null
+     * @return the entry file
+     */
+    public synchronized File commit(String key, File tempFile, Metadata metadata) throws IOException {
+        File file = new File(mDirectory, key);
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Cannot commit " + tempFile + " to " + file);
+            }
+        }
+
+        long size     = file.length();
+        Long previous = mEntries.put(key, size);
+        if (previous != null) {
+            mSize -= previous;
+        }
+        mSize += size;
+        putMetadata(key, metadata);
+        appendJournal(ACTION_CLEAN, encodeClean(key, size, metadata));
+        trimToSize(mMaxSize);
+        return file;
+    }
+
+    public synchronized Metadata getMetadata(String key) {
+        return mEntries.containsKey(key) ? mMetadata.get(key) : null;
+    }
+
+    /**
+     * Record new validators of an entry, such as a renewed freshness after a 304
+     */
+    public synchronized void updateMetadata(String key, Metadata metadata) {
+        Long size = mEntries.get(key);
+        if (size == null) {
+            return;
+        }
+
+        putMetadata(key, metadata);
+        appendJournal(ACTION_CLEAN, encodeClean(key, size, metadata));
+    }
+
+    ///
+    /// Partial entries
+    ///
+
+    /**
+     * Take the partial file of the key for writing, call
+     * {@link #commitPartial(String, Metadata)} or {@link #endPartial(String, Metadata)}
+     * when finished.
+     * @return the partial file, which may hold the bytes of a previous download,
+     *         or null if another writer is editing it
+     */
+    public synchronized File editPartial(String key) {
+        if (!mEditingPartials.add(key)) {
+            return null;
+        }
+        return new File(mDirectory, key + PARTIAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Validators of the content held by the partial file, null if it can't be resumed
+     */
+    public synchronized Metadata getPartialMetadata(String key) {
+        return mPartials.get(key);
+    }
+
+    /**
+     * Publish the fully downloaded partial file as the entry of the key
+     */
+    public synchronized File commitPartial(String key, Metadata metadata) throws IOException {
+        File partialFile = new File(mDirectory, key + PARTIAL_FILE_SUFFIX);
+        try {
+            return commit(key, partialFile, metadata);
+        } finally {
+            if (mPartials.remove(key) != null) {
+                appendJournal(ACTION_DISCARD, key);
+            }
+            mEditingPartials.remove(key);
+        }
+    }
+
+    /**
+     * Stop editing a partial file
+     * @param metadata validators of the partial content to resume it later,
+     *                 or null to delete the partial file
+     */
+    public synchronized void endPartial(String key, Metadata metadata) {
+        File partialFile = new File(mDirectory, key + PARTIAL_FILE_SUFFIX);
+        mEditingPartials.remove(key);
+        if (metadata == null || !metadata.hasValidator() || partialFile.length() <= 0) {
+            partialFile.delete();
+            if (mPartials.remove(key) != null) {
+                appendJournal(ACTION_DISCARD, key);
+            }
+            return;
+        }
+
+        mPartials.remove(key);
+        mPartials.put(key, metadata);
+        appendJournal(ACTION_PARTIAL, key + " " + encodePartial(metadata));
+
+        // Only keep the latest interrupted downloads
+        Iterator<Map.Entry<String, Metadata>> iterator = mPartials.entrySet().iterator();
+        while (mPartials.size() > MAX_PARTIAL_COUNT && iterator.hasNext()) {
+            String eldestKey = iterator.next().getKey();
+            if (mEditingPartials.contains(eldestKey)) {
+                continue;
+            }
+            iterator.remove();
+            new File(mDirectory, eldestKey + PARTIAL_FILE_SUFFIX).delete();
+            appendJournal(ACTION_DISCARD, eldestKey);
+        }
+    }
+
+    public synchronized int getPartialCount() {
+        return mPartials.size();
+    }
+
+    private void putMetadata(String key, Metadata metadata) {
+        if (metadata != null) {
+            mMetadata.put(key, metadata);
+        } else {
+            mMetadata.remove(key);
+        }
+    }
+
+    private static String encodeClean(String key, long size, Metadata metadata) {
+        return metadata != null ? key + " " + size + " " + metadata.encode() : key + " " + size;
+    }
+
+    private static String encodePartial(Metadata metadata) {
+        return (metadata.getETag() != null ? metadata.getETag() : NO_VALUE) + " " + metadata.getLastModified();
+    }
+
+    public void abort(File tempFile) {
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+    }
+
+    public synchronized boolean remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size == null) {
+            return false;
+        }
+
+        mSize -= size;
+        mMetadata.remove(key);
+        new File(mDirectory, key).delete();
+        appendJournal(ACTION_REMOVE, key);
+        return true;
+    }
+
+    public synchronized void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue();
+            mEvictionCount++;
+            mMetadata.remove(eldest.getKey());
+            new File(mDirectory, eldest.getKey()).delete();
+            appendJournal(ACTION_REMOVE, eldest.getKey());
+        }
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized void close() {
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.close();
+            } catch (IOException exp) {}
+            mJournalWriter = null;
+        }
+    }
+
+    public final File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DiskCache[size=%d/%d, count=%d, hits=%d, misses=%d, evictions=%d]",
+                mSize, mMaxSize, mEntries.size(), mHitCount, mMissCount, mEvictionCount);
+    }
+
+    ///
+    /// Journal
+    ///
+
+    private void readJournal() throws IOException {
+        if (!mJournalFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        int            lineCount = 0;
+        try {
+            String magic   = reader.readLine();
+            String version = reader.readLine();
+            String blank   = reader.readLine();
+            boolean isKnownVersion = JOURNAL_VERSION.equals(version) || JOURNAL_VERSION_1.equals(version);
+            if (!JOURNAL_MAGIC.equals(magic) || !isKnownVersion || !"".equals(blank)) {
+                throw new IOException("Unexpected journal header " + magic + ", " + version);
+            }
+
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    readJournalLine(line);
+                } catch (NumberFormatException exp) {
+                    // A line torn by process death, maybe glued to the next one, is simply dropped
+                }
+                lineCount++;
+            }
+        } catch (IOException exp) {
+            // A broken journal only costs us the cached entries, never the loading
+            mEntries.clear();
+            mMetadata.clear();
+            mPartials.clear();
+            mSize = 0;
+            lineCount = 0;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException exp) {}
+        }
+
+        mRedundantOpCount = lineCount - mEntries.size();
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            // A line torn by process death is dropped as well
+            return;
+        }
+
+        String action = parts[0];
+        String key    = parts[1];
+        if (ACTION_CLEAN.equals(action) && parts.length >= 3) {
+            long size     = Long.parseLong(parts[2]);
+            Long previous = mEntries.put(key, size);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += size;
+            putMetadata(key, Metadata.decode(parts, 3));
+        } else if (ACTION_READ.equals(action)) {
+            mEntries.get(key);
+        } else if (ACTION_REMOVE.equals(action)) {
+            Long previous = mEntries.remove(key);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mMetadata.remove(key);
+        } else if (ACTION_PARTIAL.equals(action)) {
+            Metadata metadata = Metadata.decode(parts, 2);
+            mPartials.remove(key);
+            if (metadata != null) {
+                mPartials.put(key, metadata);
+            }
+        } else if (ACTION_DISCARD.equals(action)) {
+            mPartials.remove(key);
+        }
+    }
+
+    private void deleteOrphanFiles() {
+        // Drop entries whose file disappeared
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!new File(mDirectory, entry.getKey()).exists()) {
+                mSize -= entry.getValue();
+                mMetadata.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+        Iterator<String> partialIterator = mPartials.keySet().iterator();
+        while (partialIterator.hasNext()) {
+            if (!new File(mDirectory, partialIterator.next() + PARTIAL_FILE_SUFFIX).exists()) {
+                partialIterator.remove();
+            }
+        }
+
+        // Drop files never committed, such as temp files left by a killed download
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String  name      = file.getName();
+                boolean isPartial = name.endsWith(PARTIAL_FILE_SUFFIX)
+                        && mPartials.containsKey(name.substring(0, name.length() - PARTIAL_FILE_SUFFIX.length()));
+                if (!name.equals(JOURNAL_FILE) && !mEntries.containsKey(name) && !isPartial) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private synchronized void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+
+        File   tempJournal = new File(mDirectory, JOURNAL_FILE_TEMP);
+        Writer writer      = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempJournal), UTF_8));
+        try {
+            writer.write(JOURNAL_MAGIC + "\n");
+            writer.write(JOURNAL_VERSION + "\n");
+            writer.write("\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(ACTION_CLEAN + " " + encodeClean(entry.getKey(), entry.getValue(), mMetadata.get(entry.getKey())) + "\n");
+            }
+            for (Map.Entry<String, Metadata> partial : mPartials.entrySet()) {
+                writer.write(ACTION_PARTIAL + " " + partial.getKey() + " " + encodePartial(partial.getValue()) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tempJournal.renameTo(mJournalFile)) {
+            mJournalFile.delete();
+            tempJournal.renameTo(mJournalFile);
+        }
+
+        mRedundantOpCount = 0;
+        mJournalWriter    = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFile, true), UTF_8));
+    }
+
+    private void appendJournal(String action, String arguments) {
+        try {
+            mRedundantOpCount++;
+            if (mRedundantOpCount >= REBUILD_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+                rebuildJournal();
+            } else if (mJournalWriter != null) {
+                mJournalWriter.write(action + " " + arguments + "\n");
+                mJournalWriter.flush();
+            }
+        } catch (IOException exp) {
+            exp.printStackTrace();
+        }
+    }
+}
@@ -3,126 +3,213 @@ package com.cocoonshu.cobox.gestureimageview;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 
-import com.cocoonshu.cobox.graphic.Vector;
+import com.cocoonshu.cobox.animation.FrameStepper;
+import com.cocoonshu.cobox.graphic.Pose;
 import com.cocoonshu.cobox.utils.ImageUtils;
 
 /**
- * Gesture animator for Gestured image view
+ * Gesture animator for Gestured image view. It is driven by the UI thread only,
+ * every scratch object is owned by the instance, so gestures and frames neither
+ * allocate nor lock.
  * @author Cocoonshu
  * @date 2015-07-31 15:40:36
  */
 public class GestureAnimator {
 
     public  static final String  TAG           = "GestureAnimator";
-    private static final float[] sTempPolygon  = new float[8];
-    public  static final float[] sInvertBuffer = new float[8];
-
-    private float   mZoomInScaleTimes          = 2f;
-    private RectF   mImageRect                 = new RectF();
-    private RectF   mDisplayRect               = new RectF();
-    private RectF   mDrawingOutBounds          = new RectF();
-    private RectF   mAnimatedDrawingOutBounds  = new RectF();
-    private RectF   mImageClipRect             = new RectF();
-    private Vector mCurrentPose               = new Vector();
-    private Vector  mFinalPose                 = new Vector();
-    private Matrix  mCurrentImageTransform     = new Matrix();
-    private Matrix  mFinalImageTransform       = new Matrix();
-    private Matrix  mOperationTransform        = new Matrix();
+
+    /**
+     * Part of the fling velocity kept over a 60 fps frame, and the velocity
+     * in pixels per second under which the fling is over
+     */
+    public  static final float   FLING_DECAY        = 0.95f;
+    public  static final float   FLING_MIN_VELOCITY = 50f;
+
+    private float        mZoomInScaleTimes         = 2f;
+    private RectF        mImageRect                = new RectF();
+    private RectF        mDisplayRect              = new RectF();
+    private RectF        mDrawingOutBounds         = new RectF();
+    private RectF        mAnimatedDrawingOutBounds = new RectF();
+    private RectF        mImageClipRect            = new RectF();
+    private Pose         mCurrentPose              = new Pose();
+    private Pose         mFinalPose                = new Pose();
+    private Matrix       mCurrentImageTransform    = new Matrix();
+    private Matrix       mFinalImageTransform      = new Matrix();
+    private Matrix       mOperationTransform       = new Matrix();
+    private FrameStepper mFrameStepper             = new FrameStepper();
+    private RectF        mFlingConstraint          = new RectF();
+    private float        mFlingDampingDistance     = 0f;
+    private float        mFlingVelocityX           = 0f;
+    private float        mFlingVelocityY           = 0f;
+    private boolean      mIsFlinging               = false;
+    private long         mFlingStartTime           = 0;
+    private long         mFlingFrameTime           = 0;
+    private int          mFlingFrameCount          = 0;
+    private int          mLastFlingFrameCount      = 0;
+    private long         mLastFlingDuration        = 0;
+    private float[]      mTempPolygon              = new float[8];
+    private RectF        mTempBounds               = new RectF();
+    private RectF        mZoomInClipRect           = new RectF();
+    private Matrix       mInverseTransform         = new Matrix();
+    private Matrix       mSuggestTransform         = new Matrix();
+    private int          mBoundsVersion            = 0;
+    private int          mDrawingOutBoundsVersion  = -1;
+    private int          mSuggestScaleVersion      = -1;
+    private float        mSuggestScale             = 1f;
+    private RectF        mSuggestScaleDisplayRect  = new RectF();
 
     private OnInvalidateListener mOnInvalidateListener = null;
+    private OnFlingListener      mOnFlingListener      = null;
 
     public static interface OnInvalidateListener {
         void onInvaliadate();
     }
 
+    public static interface OnFlingListener {
+        /**
+         * The fling slowed down to a stop by itself, not aborted
+         * @param frameCount    frames the fling was computed in
+         * @param durationNanos frame time from the first to the last frame of the fling
+         */
+        void onFlingFinished(int frameCount, long durationNanos);
+    }
+
     public boolean compute() {
+        return compute(System.nanoTime());
+    }
+
+    /**
+     * Move the current pose towards the final pose for the time elapsed since
+     * the previous frame, so the animation lasts as long at any frame rate
+     * @param frameTimeNanos time of the frame being drawn, such as the vsync time
+     * @return true if more frames are needed
+     */
+    public boolean compute(long frameTimeNanos) {
+        boolean isFlinging       = computeFling(frameTimeNanos);
         boolean hasMoreAnimation = false;
 
-        mCurrentPose.reset();
-        mCurrentPose.apply(mCurrentImageTransform);
-        mFinalPose.reset();
-        mFinalPose.apply(mFinalImageTransform);
+        mCurrentPose.set(mCurrentImageTransform);
         if (mCurrentPose.equals(mFinalPose)) {
             hasMoreAnimation = false;
         } else {
-            hasMoreAnimation = mCurrentPose.forward(mFinalPose);
-            mCurrentPose.affine(mCurrentImageTransform);
+            float factor = mFrameStepper.step(Pose.ForwardFactor, frameTimeNanos);
+            hasMoreAnimation = factor <= 0 || mCurrentPose.forward(mFinalPose, factor);
+            mCurrentPose.toMatrix(mCurrentImageTransform);
+        }
+        if (!hasMoreAnimation) {
+            mFrameStepper.reset();
         }
 
-        return hasMoreAnimation;
+        return hasMoreAnimation || isFlinging;
     }
 
     public void setOnInvalidateListener(OnInvalidateListener listener) {
         mOnInvalidateListener = listener;
     }
 
+    public void setOnFlingListener(OnFlingListener listener) {
+        mOnFlingListener = listener;
+    }
+
+    /**
+     * Keep the image moving after the finger left, slowing down by FLING_DECAY.
+     * Pulled out of the constraint rect, the edge damping of computeScrollPassrate
+     * eats the velocity too, then the listener is told to scroll the image back.
+     * @param velocityX       pixels per second of the finger when it left
+     * @param velocityY       pixels per second of the finger when it left
+     * @param constraint      rect the image should cover, such as the clip rect
+     * @param dampingDistance distance out of the constraint at which the damping is strongest
+     */
+    public void fling(float velocityX, float velocityY, RectF constraint, float dampingDistance) {
+        mFlingConstraint.set(constraint);
+        mFlingDampingDistance = dampingDistance;
+        mFlingVelocityX       = velocityX;
+        mFlingVelocityY       = velocityY;
+        mFlingStartTime       = 0;
+        mFlingFrameTime       = 0;
+        mFlingFrameCount      = 0;
+        mIsFlinging           = true;
+        requestRedraw();
+    }
+
+    /**
+     * Stop the fling where it is, such as when the finger touches the image again
+     */
+    public void abortFling() {
+        mIsFlinging = false;
+    }
+
+    public final boolean isFlinging() {
+        return mIsFlinging;
+    }
+
+    public final int getLastFlingFrameCount() {
+        return mLastFlingFrameCount;
+    }
+
+    /**
+     * @return nanoseconds the last finished fling lasted
+     */
+    public final long getLastFlingDuration() {
+        return mLastFlingDuration;
+    }
+
     public RectF getImageRect() {
         return mImageRect;
     }
 
     public void setImageRect(float left, float top, float right, float bottom) {
         mImageRect.set(left, top, right, bottom);
+        invalidateBounds();
+    }
+
+    /**
+     * Replace the image by the same image in another resolution, such as a preview
+     * upgraded to the full image. The image keeps its pose on the display, so
+     * the current zooming, rotation and position of the user are not lost.
+     */
+    public void setImageSizeKeepingPose(float width, float height) {
+        if (mImageRect.isEmpty() || width <= 0 || height <= 0) {
+            setImageRect(mImageRect.left, mImageRect.top, mImageRect.left + width, mImageRect.top + height);
+            return;
+        }
+
+        float scaleX = mImageRect.width() / width;
+        float scaleY = mImageRect.height() / height;
+        mCurrentImageTransform.preScale(scaleX, scaleY, mImageRect.left, mImageRect.top);
+        mFinalImageTransform.preScale(scaleX, scaleY, mImageRect.left, mImageRect.top);
+        mImageRect.set(mImageRect.left, mImageRect.top, mImageRect.left + width, mImageRect.top + height);
+        mCurrentPose.set(mCurrentImageTransform);
+        onFinalTransformChanged();
+        requestRedraw();
     }
 
     public void setDisplayRect(float left, float top, float right, float bottom) {
-        mDisplayRect.set(left, top, right, bottom);
+        // Set on every frame, while it changes only on layout
+        if (!isSameRect(mDisplayRect, left, top, right, bottom)) {
+            mDisplayRect.set(left, top, right, bottom);
+            invalidateBounds();
+        }
     }
 
     public final RectF getDisplayRect() {
         return mDisplayRect;
     }
 
+    /**
+     * Bounds of the image in its final pose, computed again only after the pose,
+     * the image or the display changed. Read only, it is shared between calls.
+     */
     public final RectF getDrawingOutBound() {
-        float minLeft      = Float.POSITIVE_INFINITY;
-        float maxRight     = Float.NEGATIVE_INFINITY;
-        float minTop       = Float.POSITIVE_INFINITY;
-        float maxBottom    = Float.NEGATIVE_INFINITY;
-
-        synchronized (sTempPolygon) {
-            sTempPolygon[0] = mImageRect.left;  sTempPolygon[1] = mImageRect.top;
-            sTempPolygon[2] = mImageRect.right; sTempPolygon[3] = mImageRect.top;
-            sTempPolygon[4] = mImageRect.left;  sTempPolygon[5] = mImageRect.bottom;
-            sTempPolygon[6] = mImageRect.right; sTempPolygon[7] = mImageRect.bottom;
-            mFinalImageTransform.mapPoints(sTempPolygon);
-            for (int i = 0; i < sTempPolygon.length; i += 2) {
-                float x = sTempPolygon[i + 0];
-                float y = sTempPolygon[i + 1];
-                minLeft   = x < minLeft ? x : minLeft;
-                maxRight  = x > maxRight ? x : maxRight;
-                minTop    = y < minTop ? y : minTop;
-                maxBottom = y > maxBottom ? y : maxBottom;
-            }
-        }
-        synchronized (mDrawingOutBounds) {
-            mDrawingOutBounds.set(minLeft, minTop, maxRight, maxBottom);
+        if (mDrawingOutBoundsVersion != mBoundsVersion) {
+            mapImageBounds(mFinalImageTransform, mDrawingOutBounds);
+            mDrawingOutBoundsVersion = mBoundsVersion;
         }
         return mDrawingOutBounds;
     }
 
     public final RectF getAnimatedDrawingOutBound() {
-        float minLeft      = Float.POSITIVE_INFINITY;
-        float maxRight     = Float.NEGATIVE_INFINITY;
-        float minTop       = Float.POSITIVE_INFINITY;
-        float maxBottom    = Float.NEGATIVE_INFINITY;
-
-        synchronized (sTempPolygon) {
-            sTempPolygon[0] = mImageRect.left;  sTempPolygon[1] = mImageRect.top;
-            sTempPolygon[2] = mImageRect.right; sTempPolygon[3] = mImageRect.top;
-            sTempPolygon[4] = mImageRect.left;  sTempPolygon[5] = mImageRect.bottom;
-            sTempPolygon[6] = mImageRect.right; sTempPolygon[7] = mImageRect.bottom;
-            mCurrentImageTransform.mapPoints(sTempPolygon);
-            for (int i = 0; i < sTempPolygon.length; i += 2) {
-                float x = sTempPolygon[i + 0];
-                float y = sTempPolygon[i + 1];
-                minLeft   = x < minLeft ? x : minLeft;
-                maxRight  = x > maxRight ? x : maxRight;
-                minTop    = y < minTop ? y : minTop;
-                maxBottom = y > maxBottom ? y : maxBottom;
-            }
-        }
-        synchronized (mAnimatedDrawingOutBounds) {
-            mAnimatedDrawingOutBounds.set(minLeft, minTop, maxRight, maxBottom);
-        }
+        mapImageBounds(mCurrentImageTransform, mAnimatedDrawingOutBounds);
         return mAnimatedDrawingOutBounds;
     }
 
@@ -132,30 +219,29 @@ public class GestureAnimator {
     }
 
     private final void unprojectImageSrcAreaByMatrix(Matrix matrix, RectF src, RectF dest) {
-        Matrix inverseMat = new Matrix();
-        inverseMat.reset();
-
-        if (matrix.invert(inverseMat)) {
-            sInvertBuffer[0] = src.left;
-            sInvertBuffer[1] = src.top;
-            sInvertBuffer[2] = src.right;
-            sInvertBuffer[3] = src.top;
-            sInvertBuffer[4] = src.left;
-            sInvertBuffer[5] = src.bottom;
-            sInvertBuffer[6] = src.right;
-            sInvertBuffer[7] = src.bottom;
-            inverseMat.mapPoints(sInvertBuffer);
+        mInverseTransform.reset();
+
+        if (matrix.invert(mInverseTransform)) {
+            mTempPolygon[0] = src.left;
+            mTempPolygon[1] = src.top;
+            mTempPolygon[2] = src.right;
+            mTempPolygon[3] = src.top;
+            mTempPolygon[4] = src.left;
+            mTempPolygon[5] = src.bottom;
+            mTempPolygon[6] = src.right;
+            mTempPolygon[7] = src.bottom;
+            mInverseTransform.mapPoints(mTempPolygon);
             dest.left = Float.POSITIVE_INFINITY;
             dest.right = Float.NEGATIVE_INFINITY;
-            for (int i = 0; i < sInvertBuffer.length; i += 2) {
-                dest.left = sInvertBuffer[i] < dest.left ? sInvertBuffer[i] : dest.left;
-                dest.right = sInvertBuffer[i] > dest.right ? sInvertBuffer[i] : dest.right;
+            for (int i = 0; i < mTempPolygon.length; i += 2) {
+                dest.left = mTempPolygon[i] < dest.left ? mTempPolygon[i] : dest.left;
+                dest.right = mTempPolygon[i] > dest.right ? mTempPolygon[i] : dest.right;
             }
             dest.top = Float.POSITIVE_INFINITY;
             dest.bottom = Float.NEGATIVE_INFINITY;
-            for (int i = 1; i < sInvertBuffer.length; i += 2) {
-                dest.top = sInvertBuffer[i] < dest.top ? sInvertBuffer[i] : dest.top;
-                dest.bottom = sInvertBuffer[i] > dest.bottom ? sInvertBuffer[i] : dest.bottom;
+            for (int i = 1; i < mTempPolygon.length; i += 2) {
+                dest.top = mTempPolygon[i] < dest.top ? mTempPolygon[i] : dest.top;
+                dest.bottom = mTempPolygon[i] > dest.bottom ? mTempPolygon[i] : dest.bottom;
             }
         } else {
             dest.setEmpty();
@@ -163,10 +249,12 @@ public class GestureAnimator {
     }
 
     public void reset() {
+        abortFling();
         mImageRect.set(0, 0, 0, 0);
         mDisplayRect.set(0, 0, 0, 0);
         mCurrentImageTransform.reset();
         mFinalImageTransform.reset();
+        onFinalTransformChanged();
     }
 
     public void revert() {
@@ -187,11 +275,12 @@ public class GestureAnimator {
         float translateY    = mDisplayRect.top + (displayHeight - imageHeight * suggestScale) * 0.5f;
         float rotate        = 0;
 
+        abortFling();
         if (withAnimation) {
             mFinalImageTransform.reset();
             mFinalPose.reset();
             makeFinalImageTransform(translateX, translateY, rotate, suggestScale);
-            mFinalPose.apply(mFinalImageTransform);
+            onFinalTransformChanged();
         } else {
             mCurrentImageTransform.reset();
             mFinalImageTransform.reset();
@@ -199,40 +288,21 @@ public class GestureAnimator {
             mFinalPose.reset();
             makeFinalImageTransform(translateX, translateY, rotate, suggestScale);
             mCurrentImageTransform.set(mFinalImageTransform);
-            mFinalPose.apply(mFinalImageTransform);
-            mCurrentPose.apply(mCurrentImageTransform);
+            onFinalTransformChanged();
+            mCurrentPose.set(mCurrentImageTransform);
         }
 
         requestRedraw();
     }
 
     public void resizeFinalMatrixInRect(RectF limitRect) {
-        float minLeft      = Float.POSITIVE_INFINITY;
-        float maxRight     = Float.NEGATIVE_INFINITY;
-        float minTop       = Float.POSITIVE_INFINITY;
-        float maxBottom    = Float.NEGATIVE_INFINITY;
         float finalWidth   = 0;
         float finalHeight  = 0;
         float alignedScale = 1f;
 
-        synchronized (sTempPolygon) {
-            sTempPolygon[0] = mImageRect.left;  sTempPolygon[1] = mImageRect.top;
-            sTempPolygon[2] = mImageRect.right; sTempPolygon[3] = mImageRect.top;
-            sTempPolygon[4] = mImageRect.left;  sTempPolygon[5] = mImageRect.bottom;
-            sTempPolygon[6] = mImageRect.right; sTempPolygon[7] = mImageRect.bottom;
-            mFinalImageTransform.mapPoints(sTempPolygon);
-            for (int i = 0; i < sTempPolygon.length; i += 2) {
-                float x = sTempPolygon[i + 0];
-                float y = sTempPolygon[i + 1];
-                minLeft   = x < minLeft ? x : minLeft;
-                maxRight  = x > maxRight ? x : maxRight;
-                minTop    = y < minTop ? y : minTop;
-                maxBottom = y > maxBottom ? y : maxBottom;
-            }
-        }
-
-        finalWidth   = maxRight - minLeft;
-        finalHeight  = maxBottom - minTop;
+        mapImageBounds(mFinalImageTransform, mTempBounds);
+        finalWidth   = mTempBounds.width();
+        finalHeight  = mTempBounds.height();
         alignedScale = ImageUtils.scaleImage(
                 finalWidth, finalHeight,
                 limitRect.width(), limitRect.height(),
@@ -244,8 +314,7 @@ public class GestureAnimator {
                     alignedScale, alignedScale,
                     limitRect.centerX(), limitRect.centerY());
             mFinalImageTransform.postConcat(mOperationTransform);
-            mFinalPose.reset();
-            mFinalPose.apply(mFinalImageTransform);
+            onFinalTransformChanged();
         }
     }
 
@@ -265,8 +334,7 @@ public class GestureAnimator {
         mFinalImageTransform.setScale(suggestScale, suggestScale);
         mFinalImageTransform.postRotate(rotate, displayCenterX, displayCenterY);
         mFinalImageTransform.postTranslate(translateX, translateY);
-        mFinalPose.reset();
-        mFinalPose.apply(mFinalImageTransform);
+        onFinalTransformChanged();
 
         requestRedraw();
     }
@@ -275,6 +343,10 @@ public class GestureAnimator {
         mZoomInScaleTimes = times;
     }
 
+    /**
+     * Zoom the image so the area of the rect fills the display
+     * @return the new clip rect area, reused by the next call
+     */
     public RectF zoomIn(RectF zoomInRect) {
         float translateX   = zoomInRect.centerX() - mDisplayRect.centerX();
         float translateY   = zoomInRect.centerY() - mDisplayRect.centerY();
@@ -292,12 +364,13 @@ public class GestureAnimator {
         float displayCenterY = mDisplayRect.centerY();
         float outRectWidth   = zoomInRect.width() * suggestScale;
         float outRectHeight  = zoomInRect.height() * suggestScale;
-        return new RectF(
+        mZoomInClipRect.set(
                 displayCenterX - outRectWidth * 0.5f,
                 displayCenterY - outRectHeight * 0.5f,
                 displayCenterX + outRectWidth * 0.5f,
                 displayCenterY + outRectHeight * 0.5f
         );
+        return mZoomInClipRect;
     }
 
     public void zoomOut() {
@@ -312,7 +385,7 @@ public class GestureAnimator {
     public void toggleZoom() {
         float currentScale  = getScale();
         float suggestScale  = getCurrentSuggestScale();
-        if (Math.abs(currentScale - suggestScale) < Vector.ScaleError) {
+        if (Math.abs(currentScale - suggestScale) < Pose.ScaleError) {
             zoomOut();
         } else {
             zoomBack();
@@ -323,10 +396,28 @@ public class GestureAnimator {
         mOperationTransform.reset();
         mOperationTransform.setTranslate(-dx, -dy);
         mFinalImageTransform.postConcat(mOperationTransform);
-        mFinalPose.apply(mFinalImageTransform);
+        onFinalTransformChanged();
         requestRedraw();
     }
 
+    /**
+     * Scroll by a distance which passes less and less as the image is pulled
+     * out of the constraint rect
+     * @param constraint      rect the image should cover, such as the clip rect
+     * @param dampingDistance distance out of the constraint at which the damping is strongest
+     */
+    public void dampingScroll(float distanceX, float distanceY, RectF constraint, float dampingDistance) {
+        RectF drawingOutBound = getDrawingOutBound();
+        if (!drawingOutBound.contains(constraint)) {
+            distanceX *= computeScrollPassrate(getHorizontalOverScroll(drawingOutBound, constraint), dampingDistance);
+            distanceY *= computeScrollPassrate(getVerticalOverScroll(drawingOutBound, constraint), dampingDistance);
+        }
+
+        if (distanceX != 0 || distanceY != 0) {
+            scroll(distanceX, distanceY);
+        }
+    }
+
     public void scrollIntoConstraintRect(RectF constraint) {
         RectF drawingOutBound = getDrawingOutBound();
         RectF constraintRect  = constraint;
@@ -380,7 +471,7 @@ public class GestureAnimator {
         mOperationTransform.reset();
         mOperationTransform.setRotate(degree, pivotX, pivotY);
         mFinalImageTransform.postConcat(mOperationTransform);
-        mFinalPose.apply(mFinalImageTransform);
+        onFinalTransformChanged();
         requestRedraw();
     }
 
@@ -396,7 +487,7 @@ public class GestureAnimator {
         mOperationTransform.reset();
         mOperationTransform.setScale(scale, scale, pivotX, pivotY);
         mFinalImageTransform.postConcat(mOperationTransform);
-        mFinalPose.apply(mFinalImageTransform);
+        onFinalTransformChanged();
         requestRedraw();
     }
 
@@ -432,34 +523,26 @@ public class GestureAnimator {
         return getCurrentSuggestScale(mDisplayRect);
     }
 
+    /**
+     * Scale fitting the image inside the display rect at the final rotation,
+     * computed again only after the pose, the image or the rect changed
+     */
     public float getCurrentSuggestScale(RectF displayRect) {
-        float  minLeft      = Float.POSITIVE_INFINITY;
-        float  maxRight     = Float.NEGATIVE_INFINITY;
-        float  minTop       = Float.POSITIVE_INFINITY;
-        float  maxBottom    = Float.NEGATIVE_INFINITY;
-        Matrix matrix       = new Matrix();
-
-        matrix.setRotate(getDegree(), displayRect.centerX(), displayRect.centerY());
-        synchronized (sTempPolygon) {
-            sTempPolygon[0] = mImageRect.left;  sTempPolygon[1] = mImageRect.top;
-            sTempPolygon[2] = mImageRect.right; sTempPolygon[3] = mImageRect.top;
-            sTempPolygon[4] = mImageRect.left;  sTempPolygon[5] = mImageRect.bottom;
-            sTempPolygon[6] = mImageRect.right; sTempPolygon[7] = mImageRect.bottom;
-            matrix.mapPoints(sTempPolygon);
-            for (int i = 0; i < sTempPolygon.length; i += 2) {
-                float x = sTempPolygon[i + 0];
-                float y = sTempPolygon[i + 1];
-                minLeft   = x < minLeft ? x : minLeft;
-                maxRight  = x > maxRight ? x : maxRight;
-                minTop    = y < minTop ? y : minTop;
-                maxBottom = y > maxBottom ? y : maxBottom;
-            }
+        if (mSuggestScaleVersion == mBoundsVersion
+                && isSameRect(mSuggestScaleDisplayRect,
+                        displayRect.left, displayRect.top, displayRect.right, displayRect.bottom)) {
+            return mSuggestScale;
         }
 
-        return ImageUtils.scaleImage(
-                maxRight - minLeft, maxBottom - minTop,
+        mSuggestTransform.setRotate(getDegree(), displayRect.centerX(), displayRect.centerY());
+        mapImageBounds(mSuggestTransform, mTempBounds);
+        mSuggestScale = ImageUtils.scaleImage(
+                mTempBounds.width(), mTempBounds.height(),
                 displayRect.width(), displayRect.height(),
                 ImageUtils.SCALE_MODE_INSIDE);
+        mSuggestScaleDisplayRect.set(displayRect);
+        mSuggestScaleVersion = mBoundsVersion;
+        return mSuggestScale;
     }
 
     /**
@@ -500,6 +583,114 @@ public class GestureAnimator {
     /// Internal computing
     ///
 
+    /**
+     * Move the final pose by the fling velocity for the time elapsed since the
+     * previous frame, the current pose follows it as usual
+     * @return true if the fling goes on
+     */
+    private boolean computeFling(long frameTimeNanos) {
+        if (!mIsFlinging) {
+            return false;
+        }
+
+        long elapsedNanos = mFlingFrameTime == 0 ? FrameStepper.REFERENCE_FRAME_NANOS : frameTimeNanos - mFlingFrameTime;
+        if (mFlingFrameTime == 0) {
+            mFlingStartTime = frameTimeNanos;
+        }
+        mFlingFrameTime = frameTimeNanos;
+        if (elapsedNanos <= 0) {
+            return true;
+        }
+
+        double frames          = (double) elapsedNanos / FrameStepper.REFERENCE_FRAME_NANOS;
+        float  seconds         = elapsedNanos / 1E9F;
+        RectF  drawingOutBound = getDrawingOutBound();
+        float  passrateX       = computeScrollPassrate(getHorizontalOverScroll(drawingOutBound, mFlingConstraint), mFlingDampingDistance);
+        float  passrateY       = computeScrollPassrate(getVerticalOverScroll(drawingOutBound, mFlingConstraint), mFlingDampingDistance);
+        mFlingVelocityX *= (float) Math.pow(FLING_DECAY * passrateX, frames);
+        mFlingVelocityY *= (float) Math.pow(FLING_DECAY * passrateY, frames);
+        scroll(-mFlingVelocityX * seconds, -mFlingVelocityY * seconds);
+        mFlingFrameCount++;
+
+        if (Math.abs(mFlingVelocityX) < FLING_MIN_VELOCITY && Math.abs(mFlingVelocityY) < FLING_MIN_VELOCITY) {
+            mIsFlinging          = false;
+            mLastFlingFrameCount = mFlingFrameCount;
+            mLastFlingDuration   = frameTimeNanos - mFlingStartTime;
+            if (mOnFlingListener != null) {
+                mOnFlingListener.onFlingFinished(mLastFlingFrameCount, mLastFlingDuration);
+            }
+        }
+        return mIsFlinging;
+    }
+
+    /**
+     * Distance the image is pulled away from the left or the right edge of the constraint, 0 if not
+     */
+    private static float getHorizontalOverScroll(RectF drawingOutBound, RectF constraint) {
+        if (drawingOutBound.centerX() - constraint.centerX() > 0) {
+            // Look up the left edge damping
+            return Math.min(constraint.left - drawingOutBound.left, 0);
+        } else {
+            // Look up the right edge damping
+            return Math.max(constraint.right - drawingOutBound.right, 0);
+        }
+    }
+
+    /**
+     * Distance the image is pulled away from the top or the bottom edge of the constraint, 0 if not
+     */
+    private static float getVerticalOverScroll(RectF drawingOutBound, RectF constraint) {
+        if (drawingOutBound.centerY() - constraint.centerY() > 0) {
+            // Look up the up edge damping
+            return Math.min(constraint.top - drawingOutBound.top, 0);
+        } else {
+            // Look up the bottom edge damping
+            return Math.max(constraint.bottom - drawingOutBound.bottom, 0);
+        }
+    }
+
+    /**
+     * Bounding box of the image rect transformed by the matrix
+     */
+    private void mapImageBounds(Matrix matrix, RectF bounds) {
+        float minLeft   = Float.POSITIVE_INFINITY;
+        float maxRight  = Float.NEGATIVE_INFINITY;
+        float minTop    = Float.POSITIVE_INFINITY;
+        float maxBottom = Float.NEGATIVE_INFINITY;
+
+        mTempPolygon[0] = mImageRect.left;  mTempPolygon[1] = mImageRect.top;
+        mTempPolygon[2] = mImageRect.right; mTempPolygon[3] = mImageRect.top;
+        mTempPolygon[4] = mImageRect.left;  mTempPolygon[5] = mImageRect.bottom;
+        mTempPolygon[6] = mImageRect.right; mTempPolygon[7] = mImageRect.bottom;
+        matrix.mapPoints(mTempPolygon);
+        for (int i = 0; i < mTempPolygon.length; i += 2) {
+            float x = mTempPolygon[i + 0];
+            float y = mTempPolygon[i + 1];
+            minLeft   = x < minLeft ? x : minLeft;
+            maxRight  = x > maxRight ? x : maxRight;
+            minTop    = y < minTop ? y : minTop;
+            maxBottom = y > maxBottom ? y : maxBottom;
+        }
+        bounds.set(minLeft, minTop, maxRight, maxBottom);
+    }
+
+    /**
+     * Keep the final pose in step with the final transform, and drop the
+     * bounds computed from the previous one
+     */
+    private void onFinalTransformChanged() {
+        mFinalPose.set(mFinalImageTransform);
+        invalidateBounds();
+    }
+
+    private void invalidateBounds() {
+        mBoundsVersion++;
+    }
+
+    private static boolean isSameRect(RectF rect, float left, float top, float right, float bottom) {
+        return rect.left == left && rect.top == top && rect.right == right && rect.bottom == bottom;
+    }
+
     private void makeFinalImageTransform(float translateX, float translateY, float rotate, float scale) {
         /**
          * MF = MT * MR * MS;
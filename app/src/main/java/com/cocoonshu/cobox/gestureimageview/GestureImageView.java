@@ -1,13 +1,17 @@
 package com.cocoonshu.cobox.gestureimageview;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Region;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -16,13 +20,17 @@ import android.os.Handler;
 import android.support.v7.graphics.Palette;
 import android.support.v7.graphics.Palette.PaletteAsyncListener;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.util.DisplayMetrics;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 
 import com.cocoonshu.cobox.utils.ImageUtils;
 
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Gestured image view
  * @Author Cocoonshu
@@ -32,19 +40,24 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
                                                       ScaleRotateDetector.OnScaleRotateGestureListener,
                                                       HoverDetector.OnHoverListener,
                                                       UpDetector.OnUpListener,
-                                                      GestureAnimator.OnInvalidateListener, GestureDetector.OnDoubleTapListener, GridDrawable.OnClipChangedListener {
+                                                      GestureAnimator.OnInvalidateListener, GestureDetector.OnDoubleTapListener, GridDrawable.OnClipChangedListener,
+                                                      GestureAnimator.OnFlingListener {
     public static final String TAG = "GestureImageView";
     public static final int    PROGRESS_MIN_WIDTH_DP  = 50;
     public static final int    PROGRESS_MIN_HEIGHT_DP = 50;
     public static final float  DAMPING_DISTANCE_DP    = 100;
     public static final float  DAMPING_SCALE          = 0.2f;
     public static final float  DOUBLE_ZOOM_IN_SCALE   = 5f;
+    public static final float  DECODE_MAX_ZOOM        = 2f;
+    public static final int    COVER_COLOR            = 0xCC000000;
 
     private Uri                  mImageSource             = null;
+    private Future<?>            mLoadingTask             = null;
     private Drawable             mImageDrawable           = null;
     private ProgressDrawable     mProgressDrawable        = null;
     private GridDrawable         mGridDrawable            = null;
     private Drawable.Callback    mDrawableCallback        = null;
+    private Drawable.Callback    mImageDrawableCallback   = null;
     private Handler              mHandler                 = new Handler();
     private PaletteAsyncListener mPaletteAsyncListener    = null;
 
@@ -61,6 +74,16 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
     private boolean              mEnabledRotateGesture    = false;
     private boolean              mEnabledScaleGesture     = true;
     private boolean              mEnabledTranslateGesture = true;
+    private boolean              mEnabledTiledDecoding    = false;
+    private boolean              mEnabledMemorySaving     = false;
+    private boolean              mIsPreviewImage          = false;
+    private volatile float       mPendingProgress         = 0f;
+    private AtomicBoolean        mIsProgressPosted        = new AtomicBoolean(false);
+    private Runnable             mProgressUpdater         = null;
+    private Paint                mCoverPaint              = new Paint();
+    private Tracer               mTracer                  = new Tracer();
+    private ComponentCallbacks2  mTrimMemoryCallbacks     = null;
+    private boolean              mIsImageDropped          = false;
 
     public GestureImageView(Context context) {
         this(context, null);
@@ -94,6 +117,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         mDampingDistance     = DAMPING_DISTANCE_DP * density;
         mGestureDetector.setOnDoubleTapListener(this);
         mAnimator.setOnInvalidateListener(this);
+        mAnimator.setOnFlingListener(this);
         mAnimator.setZoomInScale(DOUBLE_ZOOM_IN_SCALE);
     }
 
@@ -104,6 +128,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
     private void parseFromXML(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         mProgressDrawable = new ProgressDrawable();
         mGridDrawable     = new GridDrawable(context);
+        mCoverPaint.setColor(COVER_COLOR);
         mDrawableCallback = new Drawable.Callback() {
             @Override
             public void invalidateDrawable(Drawable who) {
@@ -121,11 +146,52 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
                 mHandler.removeCallbacks(what);
             }
         };
+        mImageDrawableCallback = new Drawable.Callback() {
+            @Override
+            public void invalidateDrawable(Drawable who) {
+                // The image drawable lives in the image space, just redraw the whole view
+                postInvalidateOnAnimation();
+            }
+
+            @Override
+            public void scheduleDrawable(Drawable who, Runnable what, long when) {
+                mHandler.postAtTime(what, when);
+            }
+
+            @Override
+            public void unscheduleDrawable(Drawable who, Runnable what) {
+                mHandler.removeCallbacks(what);
+            }
+        };
+        mProgressUpdater = new Runnable() {
+            @Override
+            public void run() {
+                mIsProgressPosted.set(false);
+                mProgressDrawable.setProgress(mPendingProgress);
+            }
+        };
+        mTrimMemoryCallbacks = new ComponentCallbacks2() {
+
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration configuration) {}
+
+        };
         mGridDrawable.setOnClipChangedListener(this);
         mProgressDrawable.setCallback(mDrawableCallback);
         mGridDrawable.setCallback(mDrawableCallback);
 
         TypedArray array = context.obtainStyledAttributes(attrs, R.styleable.GestureImageView, defStyleAttr, defStyleRes);
+        String imageUrl = null;
         int keyCount = array.getIndexCount();
         for (int i = 0; i < keyCount; i++) {
             int key = array.getIndex(i);
@@ -143,14 +209,136 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
                 } break;
 
                 case R.styleable.GestureImageView_imageUrl: {
-                    String url = array.getString(key);
-                    if (url != null) {
-                        decodeImage(url);
-                    }
+                    imageUrl = array.getString(key);
+                } break;
+
+                case R.styleable.GestureImageView_tiledDecoding: {
+                    mEnabledTiledDecoding = array.getBoolean(key, mEnabledTiledDecoding);
                 } break;
             }
         }
         array.recycle();
+
+        // Decode after all attributes are parsed, the decoding mode depends on them
+        if (imageUrl != null) {
+            decodeImage(imageUrl);
+        }
+    }
+
+    /**
+     * Render very large images with region decoded tiles instead of one
+     * downsampled bitmap, takes effect on the next image source.
+     */
+    public void setTiledDecodingEnabled(boolean enabled) {
+        mEnabledTiledDecoding = enabled;
+    }
+
+    public boolean isTiledDecodingEnabled() {
+        return mEnabledTiledDecoding;
+    }
+
+    /**
+     * Decode opaque images such as JPEG photos as RGB_565, with half of the
+     * memory, takes effect on the next image source.
+     */
+    public void setMemorySavingEnabled(boolean enabled) {
+        mEnabledMemorySaving = enabled;
+    }
+
+    public boolean isMemorySavingEnabled() {
+        return mEnabledMemorySaving;
+    }
+
+    /**
+     * Load and show the image of the url, any unfinished loading of
+     * the previous url is cancelled.
+     */
+    public void setImageUrl(String url) {
+        decodeImage(url);
+    }
+
+    /**
+     * Latest frames, gestures and decodings of this view, see Tracer.dump()
+     */
+    public final Tracer getTracer() {
+        return mTracer;
+    }
+
+    public final Uri getImageSource() {
+        return mImageSource;
+    }
+
+    /**
+     * Images on screen are loaded before images hidden or in the back stack
+     */
+    private int getLoadingPriority() {
+        return isShown() ? ImageLoader.PRIORITY_VISIBLE : ImageLoader.PRIORITY_BACKGROUND;
+    }
+
+    private void updateLoadingPriority() {
+        if (mLoadingTask != null) {
+            ImageLoader.setPriority(mLoadingTask, getLoadingPriority());
+        }
+    }
+
+    private void cancelLoading() {
+        if (mLoadingTask != null) {
+            mLoadingTask.cancel(true);
+            mLoadingTask = null;
+        }
+    }
+
+    /**
+     * Give back the tiles the TiledImageDrawable can decode again, and the whole
+     * image if it is not on screen. A dropped image is loaded again from the
+     * caches once the view is shown.
+     */
+    private void trimMemory(int level) {
+        long tileBytesBefore = 0;
+        long tileBytesAfter  = 0;
+        if (mImageDrawable instanceof TiledImageDrawable) {
+            TiledImageDrawable drawable = (TiledImageDrawable) mImageDrawable;
+            tileBytesBefore = drawable.getTileCacheSize();
+            drawable.trimTiles(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL ? 0 : tileBytesBefore / 2);
+            tileBytesAfter  = drawable.getTileCacheSize();
+        }
+
+        boolean isHidden = !isShown() || getWindowVisibility() != VISIBLE;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && isHidden && mImageSource != null) {
+            dropImage();
+        }
+
+        mTracer.trace(Tracer.EVENT_TRIM_MEMORY, level, tileBytesBefore - tileBytesAfter);
+    }
+
+    private void dropImage() {
+        cancelLoading();
+        final Drawable image = mImageDrawable;
+        if (image == null) {
+            // The cancelled loading has to be done again once shown
+            mIsImageDropped = true;
+            return;
+        }
+
+        mTracer.trace(Tracer.EVENT_DROP_IMAGE, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+        synchronized (image) {
+            mImageDrawable  = null;
+            mIsPreviewImage = false;
+            mIsImageDropped = true;
+            if (image instanceof TiledImageDrawable) {
+                ((TiledImageDrawable) image).recycle();
+            } else if (image instanceof BitmapDrawable) {
+                ImageLoader.releaseBitmap(((BitmapDrawable) image).getBitmap());
+            }
+        }
+        invalidate();
+    }
+
+    private void reloadDroppedImage() {
+        if (mIsImageDropped && isShown() && getWindowVisibility() == VISIBLE) {
+            mIsImageDropped = false;
+            decodeImage(mImageSource.toString());
+        }
     }
 
     private void decodeImage(String url) {
@@ -158,23 +346,87 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
             return;
         }
 
+        cancelLoading();
+        resetProgressUpdate();
+        mTracer.trace(Tracer.EVENT_DECODE_START);
+        mIsImageDropped = false;
         mImageSource = Uri.parse(url);
-        if (mImageSource != null) {
+        final Uri imageSource = mImageSource;
+        if (mImageSource != null && mEnabledTiledDecoding) {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            LoadOptions    options = new LoadOptions()
+                    .setTargetSize(metrics.widthPixels, metrics.heightPixels)
+                    .setPriority(getLoadingPriority());
+            mProgressDrawable.setEnabled(true);
+            mProgressDrawable.setProgress(0);
+            mLoadingTask = ImageLoader.decodeTiledImage(getContext(), mImageSource, options, new ImageLoader.OnTiledFinishedListener() {
+
+                @Override
+                public void onProgress(float progress) {
+                    postProgress(progress);
+                }
+
+                @Override
+                public void onSuccessed(TiledImageDrawable drawable) {
+                    if (imageSource != mImageSource) {
+                        drawable.recycle();
+                        return;
+                    }
+                    mTracer.trace(Tracer.EVENT_DECODE_FINISH, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+                    setImage(drawable);
+                }
+
+                @Override
+                public void onFailed() {
+
+                }
+
+            });
+        } else if (mImageSource != null) {
+            LoadOptions options = createLoadOptions()
+                    .setPreviewEnabled(true)
+                    .setThumbnailPreviewEnabled(true)
+                    .setPriority(getLoadingPriority());
             mProgressDrawable.setEnabled(true);
             mProgressDrawable.setProgress(0);
-            ImageLoader.decodeImage(getContext(), mImageSource, new ImageLoader.OnFinishedListener() {
+            mLoadingTask = ImageLoader.decodeImage(getContext(), mImageSource, options, new ImageLoader.OnFinishedListener() {
 
                 @Override
                 public void onProgress(float progress) {
-                    mProgressDrawable.setProgress(progress);
-                    postInvalidate();
+                    postProgress(progress);
+                }
+
+                @Override
+                public void onPreview(final Bitmap preview) {
+                    mHandler.post(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (imageSource != mImageSource || mImageDrawable != null && !mIsPreviewImage) {
+                                // Superseded by a newer source, or the full image is here already
+                                ImageLoader.releaseBitmap(preview);
+                                return;
+                            }
+                            BitmapDrawable image = new BitmapDrawable(preview);
+                            image.setTargetDensity(preview.getDensity());
+                            mTracer.trace(Tracer.EVENT_DECODE_PREVIEW, preview.getWidth(), preview.getHeight());
+                            setImage(image);
+                            mIsPreviewImage = true;
+                        }
+
+                    });
                 }
 
                 @Override
                 public void onSuccessed(final Bitmap bitmap) {
+                    if (imageSource != mImageSource) {
+                        // Superseded by a newer source
+                        ImageLoader.releaseBitmap(bitmap);
+                        return;
+                    }
                     BitmapDrawable image = new BitmapDrawable(bitmap);
                     image.setTargetDensity(bitmap.getDensity());
-                    setImage(image);
+                    upgradeImage(imageSource, image);
                 }
 
                 @Override
@@ -204,12 +456,110 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         return mImageDrawable;
     }
 
+    /**
+     * Show the full image in place of its preview, without resetting the
+     * zooming and the position of the user. Without a preview, it is a setImage.
+     */
+    private void upgradeImage(final Uri imageSource, final BitmapDrawable image) {
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (imageSource != mImageSource) {
+                    // Superseded by a newer source while this was queued
+                    ImageLoader.releaseBitmap(image.getBitmap());
+                    return;
+                }
+                final Drawable preview = mImageDrawable;
+                mTracer.trace(Tracer.EVENT_DECODE_FINISH, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+                if (!mIsPreviewImage || !(preview instanceof BitmapDrawable)) {
+                    setImage(image);
+                    return;
+                }
+
+                image.setBounds(0, 0, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+                image.setCallback(mImageDrawableCallback);
+                synchronized (preview) {
+                    mImageDrawable  = image;
+                    mIsPreviewImage = false;
+                }
+                mAnimator.setImageSizeKeepingPose(image.getIntrinsicWidth(), image.getIntrinsicHeight());
+                ImageLoader.releaseBitmap(((BitmapDrawable) preview).getBitmap());
+                invalidate();
+            }
+
+        });
+    }
+
+    /**
+     * Warm the caches with the images likely to be shown next in this view,
+     * such as the neighbours of the current image in a gallery. Showing one of
+     * them later through setImageUrl() is then served from the memory cache.
+     * @return cancels all the prefetches at once
+     */
+    public Future<?> prefetch(Collection<Uri> uris) {
+        return ImageLoader.prefetch(getContext(), uris, createLoadOptions());
+    }
+
+    /**
+     * Decode for the view size, or the screen size before the first layout.
+     * Prefetches use the same options, so they share the cached bitmaps.
+     */
+    private LoadOptions createLoadOptions() {
+        DisplayMetrics metrics      = getResources().getDisplayMetrics();
+        int            targetWidth  = getWidth() > 0 ? getWidth() : metrics.widthPixels;
+        int            targetHeight = getHeight() > 0 ? getHeight() : metrics.heightPixels;
+        return new LoadOptions()
+                .setTargetSize(targetWidth, targetHeight)
+                .setMaxZoom(DECODE_MAX_ZOOM)
+                .setMemorySavingEnabled(mEnabledMemorySaving);
+    }
+
+    /**
+     * Coalesce the progress reported by a loader thread into one update per frame,
+     * which only invalidates the bounds of the progress drawable
+     */
+    private void postProgress(float progress) {
+        mPendingProgress = progress;
+        if (mIsProgressPosted.compareAndSet(false, true)) {
+            postOnAnimation(mProgressUpdater);
+        }
+    }
+
+    /**
+     * Forget an update posted while detached, it may never run and its flag
+     * would keep every later progress from being posted
+     */
+    private void resetProgressUpdate() {
+        removeCallbacks(mProgressUpdater);
+        mIsProgressPosted.set(false);
+    }
+
     public void setImage(Drawable image) {
         image.setBounds(0, 0, image.getIntrinsicWidth(), image.getIntrinsicHeight());
+        image.setCallback(mImageDrawableCallback);
         mProgressDrawable.setEnabled(false);
+        mIsPreviewImage = false;
         if (mImageDrawable != null) {
             synchronized (mImageDrawable) {
+                final Drawable previous = mImageDrawable;
                 mImageDrawable = image;
+                if (previous instanceof TiledImageDrawable && previous != image) {
+                    mHandler.post(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            ((TiledImageDrawable) previous).recycle();
+                        }
+
+                    });
+                } else if (previous instanceof BitmapDrawable && previous != image) {
+                    Bitmap previousBitmap = ((BitmapDrawable) previous).getBitmap();
+                    if (!(image instanceof BitmapDrawable) || ((BitmapDrawable) image).getBitmap() != previousBitmap) {
+                        // Let the next decoding reuse its memory
+                        ImageLoader.releaseBitmap(previousBitmap);
+                    }
+                }
             }
         } else {
             mImageDrawable = image;
@@ -217,6 +567,8 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
 
         if (image instanceof BitmapDrawable) {
             updatePalette(((BitmapDrawable) image).getBitmap());
+        } else if (image instanceof TiledImageDrawable) {
+            updatePalette(((TiledImageDrawable) image).getBaseBitmap());
         }
 
         mHandler.post(new Runnable() {
@@ -257,6 +609,38 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         });
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+        resetProgressUpdate();
+        if (mImageSource != null && (mImageDrawable == null || mIsPreviewImage) && mLoadingTask == null) {
+            // The loading was cancelled by a previous detaching, maybe with only the preview delivered
+            decodeImage(mImageSource.toString());
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getContext().getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+        cancelLoading();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateLoadingPriority();
+        reloadDroppedImage();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateLoadingPriority();
+        reloadDroppedImage();
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int wantedWidth      = 0;
@@ -271,7 +655,6 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         float density   = getResources().getDisplayMetrics().density;
         int   minWidth  = (int)(density * PROGRESS_MIN_WIDTH_DP + 0.5f);
         int   minHeight = (int)(density * PROGRESS_MIN_HEIGHT_DP + 0.5f);
-        mProgressDrawable.setBounds(0, 0, minWidth, minHeight);
         mGridDrawable.setBounds(0, 0, minWidth, minHeight);
 
         if (mImageDrawable != null) {
@@ -313,6 +696,19 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         setMeasuredDimension(measuredWidth, measuredHeight);
     }
 
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+
+        // Centered in the view, so its own invalidation covers exactly what it draws
+        float density        = getResources().getDisplayMetrics().density;
+        int   progressWidth  = (int)(density * PROGRESS_MIN_WIDTH_DP + 0.5f);
+        int   progressHeight = (int)(density * PROGRESS_MIN_HEIGHT_DP + 0.5f);
+        int   progressLeft   = (width - progressWidth) / 2;
+        int   progressTop    = (height - progressHeight) / 2;
+        mProgressDrawable.setBounds(progressLeft, progressTop, progressLeft + progressWidth, progressTop + progressHeight);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
@@ -330,6 +726,8 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         float   roomHeight        = viewHeight - paddingVertical;
         float   drawableWidth     = 0;
         float   drawableHeight    = 0;
+        // The vsync time of the Choreographer frame, the same for everything drawn in it
+        long    frameTime         = getDrawingTime() * 1000000L;
 
         // Draw transformed image
         if (mImageDrawable != null) {
@@ -337,13 +735,17 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
                 if (mImageDrawable != null) {
                     drawableWidth  = mImageDrawable.getIntrinsicWidth();
                     drawableHeight = mImageDrawable.getIntrinsicHeight();
-                    android.util.Log.e(TAG, "[onDraw] imageDrawable = (" + drawableWidth + ", " + drawableHeight + ")");
+                    mTracer.trace(Tracer.EVENT_FRAME, drawableWidth, drawableHeight);
 
                     // Update animator
                     mAnimator.setDisplayRect(paddingLeft, paddingTop, paddingLeft + roomWidth, paddingTop + roomHeight);
-                    hasMoreAnimation = mAnimator.compute();
+                    hasMoreAnimation = mAnimator.compute(frameTime);
 
                     // Draw image
+                    if (mImageDrawable instanceof TiledImageDrawable) {
+                        ((TiledImageDrawable) mImageDrawable).setViewport(
+                                mAnimator.getImageTransform(), mAnimator.getDisplayRect());
+                    }
                     canvas.save();
                     mImageDrawable.setBounds(0, 0, (int)drawableWidth, (int)drawableHeight);
                     canvas.concat(mAnimator.getImageTransform());
@@ -353,17 +755,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
             }
 
             // Draw background cover
-            canvas.drawColor(0xCC000000);
-            synchronized (mImageDrawable) {
-                if (mImageDrawable != null) {
-                    // Draw image
-                    canvas.save();
-                    canvas.clipRect(mGridDrawable.getDrawingClipRect());
-                    canvas.concat(mAnimator.getImageTransform());
-                    mImageDrawable.draw(canvas);
-                    canvas.restore();
-                }
-            }
+            drawCover(canvas, mGridDrawable.getDrawingClipRect(), viewWidth, viewHeight, drawableWidth, drawableHeight);
 
             // Draw clip grid
             mGridDrawable.setBounds(0, 0, (int) (viewWidth), (int) (viewHeight));
@@ -371,15 +763,12 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
             mGridDrawable.setClipLimitRect(mAnimator.getDisplayRect());
             mGridDrawable.setCurrentImageRotate(mAnimator.getDegree());
             mGridDrawable.setEnabled(mImageDrawable != null);
+            mGridDrawable.setFrameTime(frameTime);
             mGridDrawable.draw(canvas);
         }
 
         // Draw loading progress
-        Rect progressDrawableBounds = mProgressDrawable.getBounds();
-        canvas.save(Canvas.MATRIX_SAVE_FLAG);
-        canvas.translate((viewWidth - progressDrawableBounds.width()) * 0.5f, (viewHeight - progressDrawableBounds.height()) * 0.5f);
         mProgressDrawable.draw(canvas);
-        canvas.restore();
 
         // Perform more animation frames
         if (hasMoreAnimation) {
@@ -387,6 +776,40 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         }
     }
 
+    /**
+     * Dim everything out of the clip rect with the four rects around it, and the
+     * part of the clip rect the image doesn't cover, such as an image dragged past
+     * its edge. The image is drawn only once and its pixels in the clip rect are
+     * never covered.
+     */
+    private void drawCover(Canvas canvas, Rect clipRect, float viewWidth, float viewHeight,
+                           float drawableWidth, float drawableHeight) {
+        float clipLeft   = Math.max(0, Math.min(viewWidth, clipRect.left));
+        float clipTop    = Math.max(0, Math.min(viewHeight, clipRect.top));
+        float clipRight  = Math.max(clipLeft, Math.min(viewWidth, clipRect.right));
+        float clipBottom = Math.max(clipTop, Math.min(viewHeight, clipRect.bottom));
+
+        canvas.drawRect(0, 0, viewWidth, clipTop, mCoverPaint);
+        canvas.drawRect(0, clipBottom, viewWidth, viewHeight, mCoverPaint);
+        canvas.drawRect(0, clipTop, clipLeft, clipBottom, mCoverPaint);
+        canvas.drawRect(clipRight, clipTop, viewWidth, clipBottom, mCoverPaint);
+
+        // Most of the frames the image is axis aligned and covers the clip rect
+        Matrix imageTransform = mAnimator.getImageTransform();
+        RectF  imageBounds    = mAnimator.getAnimatedDrawingOutBound();
+        if (clipLeft >= clipRight || clipTop >= clipBottom
+                || drawableWidth > 0 && drawableHeight > 0 && imageTransform.rectStaysRect()
+                && imageBounds.contains(clipLeft, clipTop, clipRight, clipBottom)) {
+            return;
+        }
+        canvas.save();
+        canvas.clipRect(clipLeft, clipTop, clipRight, clipBottom);
+        canvas.concat(imageTransform);
+        canvas.clipRect(0, 0, drawableWidth, drawableHeight, Region.Op.DIFFERENCE);
+        canvas.drawPaint(mCoverPaint);
+        canvas.restore();
+    }
+
     private void scaleImageBack() {
         RectF drawingOutBound = mAnimator.getDrawingOutBound();
         RectF clipRect        = mGridDrawable.getClipRect();
@@ -455,45 +878,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
     }
 
     private void dampingScroll(float distanceX, float distanceY) {
-        RectF drawingOutBound = mAnimator.getDrawingOutBound();
-        RectF clipRect        = mGridDrawable.getClipRect();
-        if (!drawingOutBound.contains(clipRect)) {
-            // Horizontal damping
-            float centerXOffset      = drawingOutBound.centerX() - clipRect.centerX();
-            float horizontalDistance = 0;
-            float horizontalPassrate = 1f;
-            if (centerXOffset > 0) {
-                // Look up the left edge damping
-                horizontalDistance = clipRect.left - drawingOutBound.left;
-                horizontalDistance = horizontalDistance < 0 ? horizontalDistance : 0;
-            } else {
-                // Look up the right edge damping
-                horizontalDistance = clipRect.right - drawingOutBound.right;
-                horizontalDistance = horizontalDistance > 0 ? horizontalDistance : 0;
-            }
-            horizontalPassrate = GestureAnimator.computeScrollPassrate(horizontalDistance, mDampingDistance);
-            distanceX *= horizontalPassrate;
-
-            // Vertical damping
-            float centerYOffset    = drawingOutBound.centerY() - clipRect.centerY();
-            float verticalDistance = 0;
-            float verticalPassrate = 1f;
-            if (centerYOffset > 0) {
-                // Look up the up edge damping
-                verticalDistance = clipRect.top - drawingOutBound.top;
-                verticalDistance = verticalDistance < 0 ? verticalDistance : 0;
-            } else {
-                // Look up the bottom edge damping
-                verticalDistance = clipRect.bottom - drawingOutBound.bottom;
-                verticalDistance = verticalDistance > 0 ? verticalDistance : 0;
-            }
-            verticalPassrate = GestureAnimator.computeScrollPassrate(verticalDistance, mDampingDistance);
-            distanceY *= verticalPassrate;
-        }
-
-        if (distanceX != 0 || distanceY != 0) {
-            mAnimator.scroll(distanceX, distanceY);
-        }
+        mAnimator.dampingScroll(distanceX, distanceY, mGridDrawable.getClipRect(), mDampingDistance);
     }
 
     private void dampingScale(float scale) {
@@ -542,58 +927,62 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
 
     @Override
     public boolean onDown(MotionEvent event) {
-        Log.i(TAG, "[onDown]");
+        mTracer.trace(Tracer.EVENT_DOWN, event.getX(), event.getY());
         mIsUnderTouch = true;
+        mAnimator.abortFling();
         return true;
     }
 
     @Override
     public boolean onUp(MotionEvent event) {
-        Log.i(TAG, "[onUp]");
+        mTracer.trace(Tracer.EVENT_UP, event.getX(), event.getY());
         mIsUnderTouch = false;
         scaleImageBack();
-        scrollImageBack();
+        if (!mAnimator.isFlinging()) {
+            // A fling scrolls back once it stops, see onFlingFinished
+            scrollImageBack();
+        }
         return true;
     }
 
     @Override
     public void onShowPress(MotionEvent event) {
-        Log.i(TAG, "[onShowPress]");
+        mTracer.trace(Tracer.EVENT_SHOW_PRESS, event.getX(), event.getY());
     }
 
     @Override
     public void onLongPress(MotionEvent event) {
-        Log.i(TAG, "[onLongPress]");
+        mTracer.trace(Tracer.EVENT_LONG_PRESS, event.getX(), event.getY());
     }
 
     @Override
     public boolean onSingleTapUp(MotionEvent event) {
-        Log.i(TAG, "[onSingleTapUp]");
+        mTracer.trace(Tracer.EVENT_SINGLE_TAP_UP, event.getX(), event.getY());
         return false;
     }
 
     @Override
     public boolean onSingleTapConfirmed(MotionEvent event) {
-        Log.i(TAG, "[onSingleTapConfirmed]");
+        mTracer.trace(Tracer.EVENT_SINGLE_TAP_CONFIRMED, event.getX(), event.getY());
         return false;
     }
 
     @Override
     public boolean onDoubleTap(MotionEvent event) {
-        Log.i(TAG, "[onDoubleTap]");
+        mTracer.trace(Tracer.EVENT_DOUBLE_TAP, event.getX(), event.getY());
         mAnimator.toggleZoom();
         return true;
     }
 
     @Override
     public boolean onDoubleTapEvent(MotionEvent event) {
-        Log.i(TAG, "[onDoubleTapEvent]");
+        mTracer.trace(Tracer.EVENT_DOUBLE_TAP_EVENT, event.getX(), event.getY());
         return true;
     }
 
     @Override
     public boolean onScroll(MotionEvent eventStart, MotionEvent eventEnd, float distanceX, float distanceY) {
-        Log.i(TAG, "[onScroll] distance = (" + distanceX + ", " + distanceY + ")");
+        mTracer.trace(Tracer.EVENT_SCROLL, distanceX, distanceY);
         if (mEnabledTranslateGesture) {
             dampingScroll(distanceX, distanceY);
         }
@@ -602,13 +991,17 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
 
     @Override
     public boolean onFling(MotionEvent eventStart, MotionEvent eventEnd, float velocityX, float velocityY) {
-        Log.i(TAG, "[onScroll] velocity = (" + velocityX + ", " + velocityY + ")");
+        mTracer.trace(Tracer.EVENT_FLING, velocityX, velocityY);
+        if (mEnabledTranslateGesture) {
+            mAnimator.fling(velocityX, velocityY, mGridDrawable.getClipRect(), mDampingDistance);
+        }
         return true;
     }
 
     @Override
     public boolean onScaleRotateBegin(float scalePivotX, float scalePivotY, float angle, float rotatePivotX, float rotatePivotY, float scale, ScaleRotateDetector detector) {
-        Log.i(TAG, "[onScaleRotateBegin]");
+        mTracer.trace(Tracer.EVENT_SCALE_BEGIN, scale, angle);
+        mAnimator.abortFling();
         mLastScale  = scale;
         mLastRotate = angle;
         return true;
@@ -616,7 +1009,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
 
     @Override
     public boolean onScaleRotate(float scalePivotX, float scalePivotY, float angle, float rotatePivotX, float rotatePivotY, float scale, ScaleRotateDetector detector) {
-        Log.i(TAG, "[onScaleRotate]");
+        mTracer.trace(Tracer.EVENT_SCALE, scale, angle);
         float displayCenterX = mAnimator.getDisplayCenterX();
         float displayCenterY = mAnimator.getDisplayCenterY();
         if (mEnabledScaleGesture) {
@@ -632,7 +1025,7 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
 
     @Override
     public boolean onScaleRotateEnd(float scalePivotX, float scalePivotY, float angle, float rotatePivotX, float rotatePivotY, float scale, ScaleRotateDetector detector) {
-        Log.i(TAG, "[onScaleRotateEnd]");
+        mTracer.trace(Tracer.EVENT_SCALE_END, scale, angle);
         return true;
     }
 
@@ -651,20 +1044,26 @@ public class GestureImageView extends View implements GestureDetector.OnGestureL
         postInvalidateOnAnimation();
     }
 
+    @Override
+    public void onFlingFinished(int frameCount, long durationNanos) {
+        mTracer.trace(Tracer.EVENT_FLING_END, frameCount, durationNanos / 1E6F);
+        scrollImageBack();
+    }
+
     @Override
     public void onClipStart(GridDrawable drawable) {
-        Log.i(TAG, "[onClipStart]");
+        mTracer.trace(Tracer.EVENT_CLIP_START);
     }
 
     @Override
     public void onClipChanging(GridDrawable drawable, RectF clipRect) {
-        Log.i(TAG, "[onClipChanging]");
+        mTracer.trace(Tracer.EVENT_CLIP_CHANGING, clipRect.width(), clipRect.height());
         scrollImageBack();
     }
 
     @Override
     public void onClipStop(GridDrawable drawable) {
-        Log.i(TAG, "[onClipStop]");
+        mTracer.trace(Tracer.EVENT_CLIP_STOP);
         RectF clip = drawable.getClipRect();
         RectF dest = mAnimator.zoomIn(clip);
         drawable.zoomTo(dest);
@@ -81,6 +81,7 @@ public class GridDrawable extends Drawable {
     private PointF                    mLastMotionPoint            = new PointF();
     private Smoother4 mClipSmoother               = null;
     private OnClipChangedListener     mOnClipChangedListener      = null;
+    private long                      mFrameTime                  = 0;
 
     public static interface OnClipChangedListener {
         void onClipStart(GridDrawable drawable);
@@ -249,9 +250,10 @@ public class GridDrawable extends Drawable {
     @Override
     public void draw(Canvas canvas) {
         boolean hasMoreFrames = false;
-        hasMoreFrames |= mAlphaAnimator.smooth();
-        hasMoreFrames |= mGridAlphaAnimator.smooth();
-        hasMoreFrames |= mClipSmoother.smooth();
+        long    frameTime     = mFrameTime != 0 ? mFrameTime : System.nanoTime();
+        hasMoreFrames |= mAlphaAnimator.smooth(frameTime);
+        hasMoreFrames |= mGridAlphaAnimator.smooth(frameTime);
+        hasMoreFrames |= mClipSmoother.smooth(frameTime);
         if (hasMoreFrames) {
             invalidateSelf();
         }
@@ -322,6 +324,14 @@ public class GridDrawable extends Drawable {
         invalidateSelf();
     }
 
+    /**
+     * Time of the frame about to be drawn, the animations step by the time
+     * elapsed since the previous frame. Without it they follow System.nanoTime().
+     */
+    public void setFrameTime(long frameTimeNanos) {
+        mFrameTime = frameTimeNanos;
+    }
+
     public void setCurrentImageRotate(float degree) {
         mCurrentRotate = degree;
     }
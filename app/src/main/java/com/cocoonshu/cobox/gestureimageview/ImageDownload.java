@@ -0,0 +1,370 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.os.CancellationSignal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * One HTTP fetch of a remote image through the disk cache.
+ * A stale cached image is revalidated by a conditional request, so an unchanged
+ * image costs a 304 instead of its body. An interrupted download is kept as a
+ * partial entry and continued by a Range request, the partial bytes are replayed
+ * ahead of the network body so the decoder still reads the whole content.
+ * @Author Cocoonshu
+ * @Date   2016-11-22 09:36:18
+ */
+class ImageDownload {
+
+    public  static final String TAG               = "ImageDownload";
+    public  static final long   DEFAULT_FRESHNESS = 60 * 60 * 1000;
+    private static final String HTTP_DATE_FORMAT  = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    private final DiskCache             mDiskCache;
+    private final String                mCacheKey;
+    private final String                mUrl;
+    private final LoadMetrics           mMetrics;
+    private volatile HttpURLConnection  mConnection       = null;
+    private File                        mCachedFile       = null;
+    private DiskCache.Metadata          mCachedMetadata   = null;
+    private File                        mTargetFile       = null;
+    private boolean                     mIsPartialTarget  = false;
+    private long                        mResumeCount      = 0;
+    private long                        mTotalCount       = -1;
+    private DiskCache.Metadata          mResponseMetadata = null;
+    private FileOutputStream            mOutput           = null;
+    private TeeInputStream              mNetworkStream    = null;
+    private InputStream                 mBodyStream       = null;
+    private File                        mCommittedFile    = null;
+    private boolean                     mIsDiscarded      = false;
+    private long                        mResponseTime     = 0;
+
+    /**
+     * @param diskCache the disk cache, or null to download without caching
+     * @param cacheKey  key of the image in the disk cache
+     * @param url       the http or https url of the image
+     * @param metrics   receives the network stages and the cache outcome
+     */
+    ImageDownload(DiskCache diskCache, String cacheKey, String url, LoadMetrics metrics) {
+        mDiskCache = diskCache;
+        mCacheKey  = cacheKey;
+        mUrl       = url;
+        mMetrics   = metrics;
+    }
+
+    /**
+     * Send the request, revalidating a stale cached image or resuming a partial one
+     * @return a cached file which needs no body to be read: still fresh, confirmed
+     *         by a 304 or kept while the server is unreachable. Null if the body
+     *         has to be read through openBody().
+     */
+    File connect(CancellationSignal signal) throws IOException {
+        long now = System.currentTimeMillis();
+        if (mDiskCache != null) {
+            mCachedFile     = mDiskCache.get(mCacheKey);
+            mCachedMetadata = mDiskCache.getMetadata(mCacheKey);
+            if (mCachedFile != null && (mCachedMetadata == null || !mCachedMetadata.needsRevalidation(now))) {
+                mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_DISK_HIT);
+                return mCachedFile;
+            }
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        // Lengths and byte ranges have to refer to the stored bytes, never to a gzipped body
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (mCachedFile != null) {
+            String etag = mCachedMetadata.getETag();
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (mCachedMetadata.getLastModified() > 0) {
+                connection.setIfModifiedSince(mCachedMetadata.getLastModified());
+            }
+        } else {
+            openTarget(connection);
+        }
+        mConnection = connection;
+        signal.throwIfCanceled();
+
+        int responseCode = 0;
+        mMetrics.begin(LoadMetrics.STAGE_CONNECT);
+        try {
+            responseCode = connection.getResponseCode();
+        } catch (IOException exp) {
+            if (mCachedFile != null && !signal.isCanceled()) {
+                // Offline, a stale image beats no image
+                mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_STALE);
+                return mCachedFile;
+            }
+            throw exp;
+        } finally {
+            mMetrics.end(LoadMetrics.STAGE_CONNECT);
+        }
+        mResponseTime = System.nanoTime();
+
+        if (mCachedFile != null) {
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mDiskCache.updateMetadata(mCacheKey, mCachedMetadata.renew(computeExpires(connection, now)));
+                ImageLoader.getStatistics().onRevalidated();
+                mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_REVALIDATED);
+                connection.disconnect();
+                return mCachedFile;
+            } else if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_STALE);
+                connection.disconnect();
+                return mCachedFile;
+            }
+            // Changed on the server, the new body replaces the cached one
+            openTarget(null);
+        }
+
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL && mResumeCount > 0
+                && contentRange != null && contentRange.startsWith("bytes " + mResumeCount + "-")) {
+            mTotalCount = parseTotalCount(contentRange, mResumeCount + connection.getContentLength());
+            ImageLoader.getStatistics().onResumedDownload(mResumeCount);
+            mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_RESUMED);
+        } else if (responseCode == HttpURLConnection.HTTP_OK) {
+            // The server ignored the range or the content changed, start over
+            mResumeCount = 0;
+            mTotalCount  = connection.getContentLength();
+            mMetrics.setCacheOutcome(LoadMetrics.OUTCOME_DOWNLOADED);
+        } else {
+            // Such as a 416 for a partial file the server no longer matches
+            mResumeCount = 0;
+            mIsDiscarded = true;
+            throw new IOException("Unexpected response " + responseCode + " for " + mUrl);
+        }
+        if (hasCacheDirective(connection, "no-store")) {
+            // Only kept as the file the decoders read, never revalidated nor resumed
+            mResponseMetadata = new DiskCache.Metadata(null, 0, now);
+        } else {
+            mResponseMetadata = new DiskCache.Metadata(
+                    connection.getHeaderField("ETag"),
+                    connection.getLastModified(),
+                    computeExpires(connection, now));
+        }
+        return null;
+    }
+
+    /**
+     * Open the content after connect() returned null. The bytes read are appended
+     * to the cache file while the returned stream is consumed.
+     */
+    InputStream openBody(ImageLoader.OnFinishedListener listener, CancellationSignal signal) throws IOException {
+        mOutput        = mTargetFile != null ? new FileOutputStream(mTargetFile, mResumeCount > 0) : null;
+        mNetworkStream = new TeeInputStream(mConnection.getInputStream(), mOutput, mResumeCount, mTotalCount, listener, signal);
+        if (mResumeCount > 0) {
+            // The partial file is read up to its end before the first network byte
+            // is appended to it, so its growing tail is never read back
+            mBodyStream = new SequenceInputStream(new FileInputStream(mTargetFile), mNetworkStream);
+        } else {
+            mBodyStream = mNetworkStream;
+        }
+        return mBodyStream;
+    }
+
+    /**
+     * The content is not an image, don't keep it nor resume it
+     */
+    void discard() {
+        mIsDiscarded = true;
+    }
+
+    /**
+     * Read the rest of the content and publish it in the disk cache
+     * @return the cached file, or null if the content is not cached
+     */
+    File commit() throws IOException {
+        if (mIsDiscarded || mNetworkStream == null) {
+            return null;
+        }
+
+        // The decoder may stop before the end, complete the cached copy
+        mNetworkStream.drain();
+        if (mOutput != null) {
+            mOutput.getFD().sync();
+            mOutput.close();
+            mOutput = null;
+        }
+        if (mTargetFile != null && mNetworkStream.isComplete()) {
+            mCommittedFile = mIsPartialTarget
+                    ? mDiskCache.commitPartial(mCacheKey, mResponseMetadata)
+                    : mDiskCache.commit(mCacheKey, mTargetFile, mResponseMetadata);
+        }
+        return mCommittedFile;
+    }
+
+    /**
+     * Tear the connection down, a blocked socket read ignores interruption
+     */
+    void disconnect() {
+        HttpURLConnection connection = mConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Close everything, an uncommitted download is kept to be resumed when
+     * the server gave a validator for it
+     */
+    void release() {
+        if (mNetworkStream != null) {
+            recordTransfer(mNetworkStream);
+        }
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException exp) {}
+            mOutput = null;
+        }
+        if (mBodyStream != null) {
+            try {
+                mBodyStream.close();
+            } catch (IOException exp) {}
+        }
+        disconnect();
+
+        if (mTargetFile != null && mCommittedFile == null) {
+            if (mIsPartialTarget) {
+                mDiskCache.endPartial(mCacheKey, getKeptPartialMetadata());
+            } else {
+                mDiskCache.abort(mTargetFile);
+            }
+        }
+        mTargetFile = null;
+    }
+
+    /**
+     * Bytes of the content read so far, including the resumed ones
+     */
+    long getReadCount() {
+        return mNetworkStream != null ? mNetworkStream.getReadCount() : 0;
+    }
+
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Validators to keep the partial file with. Without a response, such as
+     * a failed reconnection, the partial file is as good as it was before.
+     */
+    private DiskCache.Metadata getKeptPartialMetadata() {
+        if (mIsDiscarded) {
+            return null;
+        }
+        return mResponseMetadata != null ? mResponseMetadata : mDiskCache.getPartialMetadata(mCacheKey);
+    }
+
+    private void recordTransfer(TeeInputStream networkStream) {
+        long firstReadTime = networkStream.getFirstReadTime();
+        long endTime       = networkStream.getEndTime();
+        if (firstReadTime > 0) {
+            mMetrics.add(LoadMetrics.STAGE_FIRST_BYTE, firstReadTime - mResponseTime);
+        }
+        if (firstReadTime > 0 && endTime > 0) {
+            mMetrics.add(LoadMetrics.STAGE_DOWNLOAD, endTime - firstReadTime);
+        }
+        mMetrics.addTransferredBytes(networkStream.getReadCount() - mResumeCount);
+    }
+
+    /**
+     * Choose the file receiving the body. The partial entry of the key is used
+     * when no other download holds it, and resumed if it has a validator.
+     * @param connection the request to add the range headers to, or null to start over
+     */
+    private void openTarget(HttpURLConnection connection) throws IOException {
+        if (mDiskCache == null || mTargetFile != null) {
+            return;
+        }
+
+        mTargetFile      = mDiskCache.editPartial(mCacheKey);
+        mIsPartialTarget = mTargetFile != null;
+        if (!mIsPartialTarget) {
+            // Another task is downloading the same image into the partial file
+            mTargetFile = mDiskCache.newTempFile(mCacheKey);
+            return;
+        }
+
+        DiskCache.Metadata partialMetadata = mDiskCache.getPartialMetadata(mCacheKey);
+        long               partialLength   = mTargetFile.length();
+        if (connection == null || partialMetadata == null || partialLength <= 0) {
+            return;
+        }
+
+        // If-Range makes the server send the whole new content if it changed
+        String validator = partialMetadata.getETag();
+        if (validator == null) {
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            validator = format.format(new Date(partialMetadata.getLastModified()));
+        }
+        connection.setRequestProperty("Range", "bytes=" + partialLength + "-");
+        connection.setRequestProperty("If-Range", validator);
+        mResumeCount = partialLength;
+    }
+
+    /**
+     * Total length from a "bytes 1024-4095/4096" content range
+     */
+    private static long parseTotalCount(String contentRange, long defaultCount) {
+        int slash = contentRange.lastIndexOf('/');
+        if (slash >= 0) {
+            try {
+                return Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException exp) {
+                // Such as "*" for an unknown length
+            }
+        }
+        return defaultCount;
+    }
+
+    private static boolean hasCacheDirective(HttpURLConnection connection, String name) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                if (directive.trim().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Time the response needs a revalidation, from Cache-Control or Expires,
+     * a response without any freshness information is kept for DEFAULT_FRESHNESS
+     */
+    private static long computeExpires(HttpURLConnection connection, long now) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException exp) {
+                        // Fall back to the other headers
+                    }
+                }
+            }
+        }
+
+        long expires = connection.getExpiration();
+        return expires > 0 ? expires : now + DEFAULT_FRESHNESS;
+    }
+}
@@ -1,30 +1,54 @@
 package com.cocoonshu.cobox.gestureimageview;
 
 import android.content.ContentResolver;
+import android.content.ComponentCallbacks2;
+import android.content.ContentUris;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
 import android.graphics.Rect;
+import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Log;
 
-import com.cocoonshu.cobox.utils.ImageUtils;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Gestured image view
@@ -36,19 +60,117 @@ public class ImageLoader {
     public static final String TAG                = "ImageLoader";
     public static final int    LIMIT_IMAGE_WIDTH  = 1440;
     public static final int    LIMIT_IMAGE_HEIGHT = 2560;
+    public static final long   LIMIT_IMAGE_PIXELS = (long) LIMIT_IMAGE_WIDTH * LIMIT_IMAGE_HEIGHT;
+    public static final String DISK_CACHE_DIR     = "images";
+    public static final long   DISK_CACHE_SIZE    = 64 * 1024 * 1024;
+    public static final int    STREAM_BUFFER_SIZE = 64 * 1024;
+    public static final int    STREAM_MARK_LIMIT  = 256 * 1024;
 
-    private static ImageLoader     sImageLoader = null;
-    private        ExecutorService mExecutor    = null;
+    public static final int    PREVIEW_TARGET_DIVISOR    = 4;
+    public static final int    PREVIEW_MIN_SAMPLE_RATIO  = 4;
+    public static final float  THUMBNAIL_RATIO_TOLERANCE = 0.05f;
+
+    public static final int    PRIORITY_BACKGROUND = 0;
+    public static final int    PRIORITY_PREFETCH   = 1;
+    public static final int    PRIORITY_VISIBLE    = 2;
+
+    private static ImageLoader                     sImageLoader  = null;
+    private        ExecutorService                 mExecutor     = null;
+    private        PriorityBlockingQueue<Runnable> mTaskQueue    = null;
+    private        AtomicLong                      mSequence     = new AtomicLong();
+    private        BitmapCache                     mMemoryCache  = null;
+    private        DiskCache                       mDiskCache    = null;
+    private volatile boolean                       mIsLifoEnabled = false;
+
+    private final  HashMap<BitmapCache.Key, LoadTask> mPendingTasks  = new HashMap<BitmapCache.Key, LoadTask>();
+    private final  LoaderStatistics                   mStatistics    = new LoaderStatistics();
+    private final  LoaderMetrics                      mMetrics       = new LoaderMetrics();
+    private final  WeakHashMap<Bitmap, Integer>       mBitmapRefs    = new WeakHashMap<Bitmap, Integer>();
+    private        BitmapPool                         mBitmapPool    = null;
+    private        ComponentCallbacks2                mTrimCallbacks = null;
 
     public interface OnFinishedListener {
         void onProgress(float progress);
+        /**
+         * A low resolution preview decoded before the full image, may never come.
+         * Same as the full image, the receiver must release the bitmap when done.
+         */
+        void onPreview(Bitmap preview);
         void onSuccessed(Bitmap bitmap);
         void onFailed();
     }
 
+    public interface OnTiledFinishedListener {
+        void onProgress(float progress);
+        void onSuccessed(TiledImageDrawable drawable);
+        void onFailed();
+    }
+
+    /**
+     * Work scheduled by priority, a higher priority runs first, and
+     * a same priority runs by sequence in FIFO or LIFO order
+     */
+    interface Prioritized {
+        int getPriority();
+        long getSequence();
+    }
+
+    private static class PrioritizedFutureTask<V> extends FutureTask<V> implements Prioritized {
+
+        private final int  mPriority;
+        private final long mSequence;
+
+        public PrioritizedFutureTask(Callable<V> callable, int priority, long sequence) {
+            super(callable);
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public long getSequence() {
+            return mSequence;
+        }
+    }
+
     private ImageLoader() {
-        mExecutor = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors(),
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        mMemoryCache = new BitmapCache(Runtime.getRuntime().maxMemory() / 8);
+        mBitmapPool  = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+        mMemoryCache.setOnEntryRemovedListener(new BitmapCache.OnEntryRemovedListener() {
+
+            @Override
+            public void onEntryRemoved(BitmapCache.Key key, Bitmap bitmap) {
+                recycleIfUnused(bitmap);
+            }
+
+        });
+        mTaskQueue   = new PriorityBlockingQueue<Runnable>(16, new Comparator<Runnable>() {
+
+            @Override
+            public int compare(Runnable lhs, Runnable rhs) {
+                int  lhsPriority = lhs instanceof Prioritized ? ((Prioritized) lhs).getPriority() : PRIORITY_VISIBLE;
+                int  rhsPriority = rhs instanceof Prioritized ? ((Prioritized) rhs).getPriority() : PRIORITY_VISIBLE;
+                long lhsSequence = lhs instanceof Prioritized ? ((Prioritized) lhs).getSequence() : 0;
+                long rhsSequence = rhs instanceof Prioritized ? ((Prioritized) rhs).getSequence() : 0;
+                if (lhsPriority != rhsPriority) {
+                    return lhsPriority > rhsPriority ? -1 : 1;
+                } else if (lhsSequence == rhsSequence) {
+                    return 0;
+                } else if (mIsLifoEnabled) {
+                    return lhsSequence > rhsSequence ? -1 : 1;
+                } else {
+                    return lhsSequence < rhsSequence ? -1 : 1;
+                }
+            }
+
+        });
+        mExecutor = new ThreadPoolExecutor(
+                threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, mTaskQueue,
                 new ThreadFactory() {
 
                     private int mThreadCounter = 0;
@@ -69,172 +191,1308 @@ public class ImageLoader {
                 });
     }
 
-    private static ImageLoader getImageLoader() {
+    /**
+     * Process-wide disk cache of downloaded images
+     * @return null if no cache directory is available
+     */
+    public static final DiskCache getDiskCache(Context context) {
+        ImageLoader loader = getImageLoader();
+        synchronized (loader) {
+            if (loader.mDiskCache == null) {
+                File cacheRoot = context.getExternalCacheDir();
+                if (cacheRoot == null) {
+                    cacheRoot = context.getCacheDir();
+                }
+                try {
+                    loader.mDiskCache = new DiskCache(new File(cacheRoot, DISK_CACHE_DIR), DISK_CACHE_SIZE);
+                } catch (IOException exp) {
+                    Log.e(TAG, "[getDiskCache] Cannot open disk cache", exp);
+                }
+            }
+            return loader.mDiskCache;
+        }
+    }
+
+    private static synchronized ImageLoader getImageLoader() {
         if (sImageLoader == null) {
             sImageLoader = new ImageLoader();
         }
         return sImageLoader;
     }
 
+    /**
+     * Run the queued work of a same priority in LIFO order, the latest request
+     * runs first, which suits screens flicking through many images
+     */
+    public static final void setLifoEnabled(boolean enabled) {
+        ImageLoader loader = getImageLoader();
+        synchronized (loader.mTaskQueue) {
+            if (loader.mIsLifoEnabled == enabled) {
+                return;
+            }
+
+            // Reorder the queued work with the new comparison
+            List<Runnable> queuedTasks = new ArrayList<Runnable>();
+            loader.mTaskQueue.drainTo(queuedTasks);
+            loader.mIsLifoEnabled = enabled;
+            loader.mTaskQueue.addAll(queuedTasks);
+        }
+    }
+
+    public static final boolean isLifoEnabled() {
+        return getImageLoader().mIsLifoEnabled;
+    }
+
+    /**
+     * Change the priority of a request returned by decodeImage, a request
+     * shared by several callers runs at the highest priority of them
+     * @param request  the Future returned by decodeImage
+     * @param priority PRIORITY_VISIBLE, PRIORITY_PREFETCH or PRIORITY_BACKGROUND
+     */
+    public static final void setPriority(Future<?> request, int priority) {
+        if (request instanceof LoadTask.Subscription) {
+            LoadTask.Subscription subscription = (LoadTask.Subscription) request;
+            subscription.setPriority(priority);
+            getImageLoader().requeue(subscription.getTask());
+        }
+    }
+
+    /**
+     * Apply a changed priority of a queued task, the queue only orders a
+     * task when it is inserted, so it must be taken out before the change.
+     */
+    private void requeue(LoadTask task) {
+        synchronized (mTaskQueue) {
+            int priority = task.computePriority();
+            if (priority == task.getPriority()) {
+                return;
+            }
+
+            boolean isQueued = mTaskQueue.remove(task);
+            task.setPriority(priority, mSequence.incrementAndGet());
+            if (isQueued) {
+                mTaskQueue.offer(task);
+            }
+        }
+    }
+
+    /**
+     * Process-wide memory cache of decoded bitmaps
+     */
+    public static final BitmapCache getMemoryCache() {
+        return getImageLoader().mMemoryCache;
+    }
+
+    /**
+     * Process-wide pool of bitmaps reused by the decoders
+     */
+    public static final BitmapPool getBitmapPool() {
+        return getImageLoader().mBitmapPool;
+    }
+
+    /**
+     * Take a mutable bitmap of the exact size and config, from the pool if possible,
+     * the content is cleared to transparent.
+     */
+    public static final Bitmap obtainBitmap(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getImageLoader().mBitmapPool.get(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        bitmap.reconfigure(width, height, config);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Hold a bitmap, it never goes to the pool until every holder released it.
+     * Bitmaps delivered by decodeImage are already retained once per caller.
+     */
+    public static final void retainBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        ImageLoader loader = getImageLoader();
+        synchronized (loader.mBitmapRefs) {
+            Integer refCount = loader.mBitmapRefs.get(bitmap);
+            loader.mBitmapRefs.put(bitmap, refCount == null ? 1 : refCount + 1);
+        }
+    }
+
+    /**
+     * Give up a bitmap retained by {@link #retainBitmap(Bitmap)} or delivered by decodeImage,
+     * the bitmap goes back to the pool once nobody holds it and the memory cache dropped it.
+     */
+    public static final void releaseBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        ImageLoader loader = getImageLoader();
+        synchronized (loader.mBitmapRefs) {
+            Integer refCount = loader.mBitmapRefs.get(bitmap);
+            if (refCount != null && refCount > 1) {
+                loader.mBitmapRefs.put(bitmap, refCount - 1);
+                return;
+            }
+            loader.mBitmapRefs.remove(bitmap);
+        }
+        loader.recycleIfUnused(bitmap);
+    }
+
+    private void recycleIfUnused(Bitmap bitmap) {
+        synchronized (mBitmapRefs) {
+            // The memory cache notifies out of its lock, so this never dead locks
+            if (mBitmapRefs.containsKey(bitmap) || mMemoryCache.contains(bitmap)) {
+                return;
+            }
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Look the key up in the memory cache and retain the hit under the lock of
+     * the eviction path, a bitmap evicted in between would be given to the pool
+     * and overwritten by another decoding while it is being shown.
+     */
+    private Bitmap getRetainedCachedBitmap(BitmapCache.Key key) {
+        synchronized (mBitmapRefs) {
+            Bitmap bitmap = mMemoryCache.get(key);
+            if (bitmap != null) {
+                Integer refCount = mBitmapRefs.get(bitmap);
+                mBitmapRefs.put(bitmap, refCount == null ? 1 : refCount + 1);
+            }
+            return bitmap;
+        }
+    }
+
     public static final Future<?> decodeImage(final Context context, final Uri uri, OnFinishedListener listener) {
+        return decodeImage(context, uri, new LoadOptions(), listener);
+    }
+
+    public static final Future<?> decodeImage(final Context context, final Uri uri, final LoadOptions options, OnFinishedListener listener) {
         final Context            resContext   = context;
         final Uri                imageURI     = uri;
-        final OnFinishedListener taskListener = listener;
-        return getImageLoader().mExecutor.submit(new FutureTask<Bitmap>(new Callable<Bitmap>() {
+        final LoadOptions        loadOptions  = options;
+        final OnFinishedListener taskListener = listener == null ? null : new RetainingListener(listener);
+        final BitmapCache        memoryCache  = getImageLoader().mMemoryCache;
+        registerTrimCallbacks(context);
+        // A memory saving request picks its config by the image, no config in the key
+        final BitmapCache.Key    cacheKey     = new BitmapCache.Key(uri,
+                (int) (options.getTargetWidth() * options.getMaxZoom()),
+                (int) (options.getTargetHeight() * options.getMaxZoom()),
+                options.isMemorySavingEnabled() ? null : options.getPreferredConfig());
+
+        // Memory cache hit, deliver it right now without a trip to the executor
+        if (loadOptions.isMemoryCacheEnabled()) {
+            final Bitmap cachedBitmap = getImageLoader().getRetainedCachedBitmap(cacheKey);
+            if (cachedBitmap != null) {
+                LoadMetrics metrics = new LoadMetrics(uri.toString());
+                metrics.setCacheOutcome(LoadMetrics.OUTCOME_MEMORY_HIT);
+                metrics.setSuccessful(true);
+                metrics.begin(LoadMetrics.STAGE_DELIVERY);
+                FutureTask<Bitmap> finishedTask = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+
+                    @Override
+                    public Bitmap call() throws Exception {
+                        return cachedBitmap;
+                    }
+
+                });
+                finishedTask.run();
+                if (taskListener != null) {
+                    taskListener.onSuccessed(cachedBitmap);
+                }
+                // Held for the delivery, the listener retained its own
+                releaseBitmap(cachedBitmap);
+                metrics.end(LoadMetrics.STAGE_DELIVERY);
+                getImageLoader().mMetrics.record(metrics);
+                return finishedTask;
+            }
+        }
+
+        // Attach to the in-flight task of the same image, or start a new one
+        ImageLoader           loader       = getImageLoader();
+        LoadTask              task         = null;
+        LoadTask.Subscription subscription = null;
+        boolean               isNewTask    = false;
+        synchronized (loader.mPendingTasks) {
+            task = loader.mPendingTasks.get(cacheKey);
+            if (task == null) {
+                task = new LoadTask(cacheKey, loader.mPendingTasks, loader.mStatistics,
+                        loadOptions.getPriority(), loader.mSequence.incrementAndGet(), new LoadMetrics(uri.toString())) {
+
+                    @Override
+                    protected Bitmap decode(OnFinishedListener progressListener, CancellationSignal signal, LoadMetrics metrics) throws Exception {
+                        String scheme = imageURI.getScheme();
+                        Bitmap bitmap = null;
+                        try {
+                            if (scheme.equalsIgnoreCase("http")
+                                    || scheme.equalsIgnoreCase("https")) {
+                                bitmap = getBitmapFromNetwork(resContext, imageURI, loadOptions, progressListener, signal, metrics);
+                            } else if (scheme.equalsIgnoreCase("content")) {
+                                bitmap = getBitmapFromContentProvider(resContext, imageURI, loadOptions, progressListener, signal, metrics);
+                            } else if (scheme.equalsIgnoreCase("assets")) {
+                                bitmap = getBitmapFromAsset(resContext, imageURI, loadOptions, progressListener, signal, metrics);
+                            } else if (scheme.equalsIgnoreCase("file")
+                                    || scheme.equalsIgnoreCase("")) {
+                                bitmap = getBitmapFromFile(resContext, imageURI, loadOptions, progressListener, signal, metrics);
+                            }
+                        } catch (OperationCanceledException exp) {
+                            // Nobody wants this image anymore
+                            bitmap = null;
+                        } catch (Throwable thr) {
+                            thr.printStackTrace();
+                        }
+
+                        if (bitmap != null) {
+                            metrics.setDecodedBitmap(bitmap.getByteCount(), bitmap.getConfig());
+                        }
+
+                        // Held by the task until every subscriber retained it
+                        retainBitmap(bitmap);
+                        if (bitmap != null && loadOptions.isMemoryCacheEnabled()) {
+                            memoryCache.put(cacheKey, bitmap);
+                        }
+                        return bitmap;
+                    }
+
+                    @Override
+                    protected void onDispatched(Bitmap bitmap, LoadMetrics metrics) {
+                        releaseBitmap(bitmap);
+                        getImageLoader().mMetrics.record(metrics);
+                    }
+
+                };
+                loader.mPendingTasks.put(cacheKey, task);
+                isNewTask = true;
+            } else {
+                loader.mStatistics.onCoalesced();
+            }
+            subscription = task.subscribe(taskListener, loadOptions.getPriority());
+        }
+
+        if (isNewTask) {
+            loader.mExecutor.execute(task);
+        } else {
+            loader.requeue(task);
+        }
+        return subscription;
+    }
+
+    /**
+     * Shrink the memory cache and the bitmap pool for the trim level of
+     * ComponentCallbacks2. Only bitmaps nobody uses are recycled, the cache
+     * grows back to its size as images are decoded again from the disk.
+     */
+    public static final void trimMemory(int level) {
+        ImageLoader loader      = getImageLoader();
+        long        cacheBefore = loader.mMemoryCache.getSize();
+        long        poolBefore  = loader.mBitmapPool.getSize();
+
+        // The cache first, the bitmaps it evicts go into the pool trimmed next
+        loader.mMemoryCache.trimToSize((long) (loader.mMemoryCache.getMaxSize() * getCacheKeptRatio(level)));
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            loader.mBitmapPool.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            loader.mBitmapPool.trimToSize(loader.mBitmapPool.getMaxSize() / 2);
+        }
+
+        Log.i(TAG, String.format("[trimMemory] level = %d, memory cache %d -> %d bytes, bitmap pool %d -> %d bytes",
+                level, cacheBefore, loader.mMemoryCache.getSize(), poolBefore, loader.mBitmapPool.getSize()));
+    }
+
+    /**
+     * Part of the memory cache kept at a trim level. While running the process is
+     * only asked to help, in the background it is the next one to be killed.
+     */
+    private static float getCacheKeptRatio(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1f;
+    }
+
+    /**
+     * Follow the memory pressure of the application, from its first request on
+     */
+    private static void registerTrimCallbacks(Context context) {
+        ImageLoader loader = getImageLoader();
+        synchronized (loader) {
+            if (loader.mTrimCallbacks != null) {
+                return;
+            }
+            loader.mTrimCallbacks = new ComponentCallbacks2() {
+
+                @Override
+                public void onTrimMemory(int level) {
+                    trimMemory(level);
+                }
+
+                @Override
+                public void onLowMemory() {
+                    trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration configuration) {}
+
+            };
+            context.getApplicationContext().registerComponentCallbacks(loader.mTrimCallbacks);
+        }
+    }
+
+    /**
+     * Counters of the work avoided by coalescing and cancelling requests
+     */
+    public static final LoaderStatistics getStatistics() {
+        return getImageLoader().mStatistics;
+    }
+
+    /**
+     * Stage latency histograms of the image requests, also where a
+     * metrics listener is plugged in
+     */
+    public static final LoaderMetrics getMetrics() {
+        return getImageLoader().mMetrics;
+    }
+
+    /**
+     * Warm the caches with the images the user is likely to open next. The prefetches
+     * run at PRIORITY_PREFETCH, so every visible request overtakes them, and a later
+     * decodeImage() with the same target options hits the memory cache or joins the
+     * prefetch still in flight.
+     * @return cancels all the prefetches of the collection at once
+     */
+    public static final Future<?> prefetch(Context context, Collection<Uri> uris, int targetWidth, int targetHeight) {
+        return prefetch(context, uris, new LoadOptions().setTargetSize(targetWidth, targetHeight));
+    }
+
+    /**
+     * Same as {@link #prefetch(Context, Collection, int, int)} with the options the
+     * images will be decoded with later. With the memory cache disabled, a remote
+     * image is only downloaded into the disk cache, without decoding it.
+     */
+    public static final Future<?> prefetch(Context context, Collection<Uri> uris, LoadOptions options) {
+        LoadOptions     prefetchOptions = new LoadOptions()
+                .setTargetSize(options.getTargetWidth(), options.getTargetHeight())
+                .setPreferredConfig(options.getPreferredConfig())
+                .setMemorySavingEnabled(options.isMemorySavingEnabled())
+                .setMaxZoom(options.getMaxZoom())
+                .setMemoryCacheEnabled(options.isMemoryCacheEnabled())
+                .setPriority(PRIORITY_PREFETCH);
+        List<Future<?>> requests        = new ArrayList<Future<?>>(uris.size());
+        for (Uri uri : uris) {
+            String scheme = uri.getScheme();
+            if (!options.isMemoryCacheEnabled() && scheme != null
+                    && (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+                requests.add(downloadImage(context, uri));
+            } else {
+                requests.add(decodeImage(context, uri, prefetchOptions, new PrefetchListener()));
+            }
+        }
+        return new PrefetchGroup(requests);
+    }
+
+    private static Future<?> downloadImage(final Context context, final Uri uri) {
+        final CancellationSignal signal = new CancellationSignal();
+        final ImageLoader        loader = getImageLoader();
+        FutureTask<File> task = new PrioritizedFutureTask<File>(new Callable<File>() {
+
+            @Override
+            public File call() throws Exception {
+                try {
+                    return getCacheFileFromNetwork(context, uri, null, signal);
+                } catch (OperationCanceledException exp) {
+                    return null;
+                }
+            }
+
+        }, PRIORITY_PREFETCH, loader.mSequence.incrementAndGet()) {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                signal.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+
+        };
+        loader.mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Only warms the memory cache, the prefetched bitmaps are released right away
+     */
+    private static class PrefetchListener implements OnFinishedListener {
+
+        @Override
+        public void onProgress(float progress) {}
+
+        @Override
+        public void onPreview(Bitmap preview) {
+            releaseBitmap(preview);
+        }
+
+        @Override
+        public void onSuccessed(Bitmap bitmap) {
+            releaseBitmap(bitmap);
+        }
+
+        @Override
+        public void onFailed() {}
+    }
+
+    /**
+     * The requests of one prefetch() call, cancelled and waited for as a whole
+     */
+    private static class PrefetchGroup implements Future<Void> {
+
+        private final List<Future<?>> mRequests;
+        private volatile boolean      mIsCancelled = false;
+
+        PrefetchGroup(List<Future<?>> requests) {
+            mRequests = requests;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean isAnyCancelled = false;
+            mIsCancelled = true;
+            for (Future<?> request : mRequests) {
+                isAnyCancelled |= request.cancel(mayInterruptIfRunning);
+            }
+            return isAnyCancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (Future<?> request : mRequests) {
+                if (!request.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            if (mIsCancelled) {
+                throw new CancellationException();
+            }
+            for (Future<?> request : mRequests) {
+                try {
+                    request.get();
+                } catch (CancellationException exp) {
+                    // Cancelled on its own, the others still count
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (mIsCancelled) {
+                throw new CancellationException();
+            }
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (Future<?> request : mRequests) {
+                try {
+                    request.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (CancellationException exp) {
+                    // Cancelled on its own, the others still count
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Open a very large image for tiled rendering, only a base bitmap sampled
+     * down to the target size of the options is decoded here, the tiles are
+     * decoded on demand by the returned TiledImageDrawable.
+     */
+    public static final Future<?> decodeTiledImage(final Context context, final Uri uri, final LoadOptions options, final OnTiledFinishedListener listener) {
+        final CancellationSignal signal = new CancellationSignal();
+        final ImageLoader        loader = getImageLoader();
+        registerTrimCallbacks(context);
+        FutureTask<TiledImageDrawable> task = new PrioritizedFutureTask<TiledImageDrawable>(new Callable<TiledImageDrawable>() {
 
             @Override
-            public Bitmap call() throws Exception {
-                String scheme = imageURI.getScheme();
-                Bitmap bitmap = null;
+            public TiledImageDrawable call() throws Exception {
+                TiledImageDrawable drawable = null;
                 try {
-                    if (scheme.equalsIgnoreCase("http")
-                            || scheme.equalsIgnoreCase("https")) {
-                        bitmap = getBitmapFromNetwork(context, uri, taskListener);
-                    } else if (scheme.equalsIgnoreCase("content")) {
-                        bitmap = getBitmapFromContentProvider(context, uri);
-                    } else if (scheme.equalsIgnoreCase("assets")) {
-                        bitmap = getBitmapFromAsset(context, uri);
-                    } else if (scheme.equalsIgnoreCase("file")
-                            || scheme.equalsIgnoreCase("")) {
-                        bitmap = getBitmapFromFile(context, uri);
+                    BitmapRegionDecoder decoder = openRegionDecoder(context, uri, listener, signal);
+                    if (decoder != null) {
+                        int imageWidth = decoder.getWidth();
+                        int imageHeight = decoder.getHeight();
+                        // Sampled to fit inside the target, the tiles bring the details.
+                        // Without a target, the pixel limit keeps the base bitmap small.
+                        int baseSampleSize = DecodePlan.compute(imageWidth, imageHeight,
+                                options.getTargetWidth(), options.getTargetHeight(), 1f, LIMIT_IMAGE_PIXELS).getSampleSize();
+
+                        Options baseOptions = new Options();
+                        baseOptions.inSampleSize = baseSampleSize;
+                        baseOptions.inPreferredConfig = options.getPreferredConfig();
+                        Bitmap baseBitmap = decoder.decodeRegion(new Rect(0, 0, imageWidth, imageHeight), baseOptions);
+                        drawable = new TiledImageDrawable(decoder, baseBitmap, baseSampleSize);
                     }
+                } catch (OperationCanceledException exp) {
+                    drawable = null;
                 } catch (Throwable thr) {
                     thr.printStackTrace();
                 }
 
-                if (taskListener != null) {
-                    if (bitmap == null) {
-                        taskListener.onFailed();
+                if (signal.isCanceled()) {
+                    getImageLoader().mStatistics.onDroppedCallback();
+                    if (drawable != null) {
+                        drawable.recycle();
+                    }
+                    return null;
+                }
+                if (listener != null) {
+                    if (drawable == null) {
+                        listener.onFailed();
                     } else {
-                        taskListener.onSuccessed(bitmap);
+                        listener.onSuccessed(drawable);
                     }
                 }
-                return bitmap;
+                return drawable;
             }
 
-        }));
+        }, options.getPriority(), loader.mSequence.incrementAndGet()) {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                signal.cancel();
+                return super.cancel(mayInterruptIfRunning);
+            }
+
+        };
+        loader.mExecutor.execute(task);
+        return task;
     }
 
-    private static Bitmap getBitmapFromNetwork(Context context, Uri uri, OnFinishedListener listener) throws IOException {
-        URL           url         = new URL(uri.toString());
-        URLConnection connection  = url.openConnection();
-        InputStream   inputStream = connection.getInputStream();
-        Options       options     = new Options();
-        Bitmap        bitmap      = null;
+    /**
+     * Retain the delivered bitmap for the caller, who must release it when done
+     */
+    private static class RetainingListener implements OnFinishedListener {
+
+        private final OnFinishedListener mListener;
 
-        // Cache to file
-        Calendar calendar  = Calendar.getInstance();
-        File     cacheDir  = context.getExternalCacheDir();
-        File     cacheFile = new File(
-                cacheDir.getPath() + String.format(
-                        "/%04d-%02d-%02d_%02d_%02d_%02d_%04d",
-                        calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH),
-                        calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), calendar.get(Calendar.MILLISECOND)
-                ));
-        if (!cacheDir.exists()) {
-            cacheDir.mkdirs();
+        public RetainingListener(OnFinishedListener listener) {
+            mListener = listener;
         }
-        if (cacheFile.createNewFile()) {
-            FileOutputStream fout = new FileOutputStream(cacheFile);
+
+        @Override
+        public void onProgress(float progress) {
+            mListener.onProgress(progress);
+        }
+
+        @Override
+        public void onPreview(Bitmap preview) {
+            retainBitmap(preview);
+            mListener.onPreview(preview);
+        }
+
+        @Override
+        public void onSuccessed(Bitmap bitmap) {
+            retainBitmap(bitmap);
+            mListener.onSuccessed(bitmap);
+        }
+
+        @Override
+        public void onFailed() {
+            mListener.onFailed();
+        }
+    }
+
+    private static BitmapRegionDecoder openRegionDecoder(Context context, Uri uri, final OnTiledFinishedListener listener, CancellationSignal signal) throws IOException {
+        String scheme = uri.getScheme();
+        if (scheme.equalsIgnoreCase("http")
+                || scheme.equalsIgnoreCase("https")) {
+            File cacheFile = getCacheFileFromNetwork(context, uri, new OnFinishedListener() {
+
+                @Override
+                public void onProgress(float progress) {
+                    if (listener != null) {
+                        listener.onProgress(progress);
+                    }
+                }
+
+                @Override
+                public void onPreview(Bitmap preview) {}
+
+                @Override
+                public void onSuccessed(Bitmap bitmap) {}
+
+                @Override
+                public void onFailed() {}
+
+            }, signal);
+            return cacheFile == null ? null : BitmapRegionDecoder.newInstance(cacheFile.getAbsolutePath(), false);
+        } else if (scheme.equalsIgnoreCase("content")) {
+            ParcelFileDescriptor fileDescriptor = context.getContentResolver().openFileDescriptor(uri, "r");
             try {
-                byte[] buffer     = new byte[1024];
-                int    readCount  = 0;
-                int    writeCount = 0;
-                int    totalCount = connection.getContentLength();
-                do {
-                    readCount = inputStream.read(buffer);
-                    if (readCount > 0) {
-                        fout.write(buffer, 0, readCount);
-                        writeCount += readCount;
-                        if (listener != null) {
-                            listener.onProgress((float) writeCount / (float) totalCount);
-                        }
+                return BitmapRegionDecoder.newInstance(fileDescriptor.getFileDescriptor(), false);
+            } finally {
+                fileDescriptor.close();
+            }
+        } else if (scheme.equalsIgnoreCase("assets")) {
+            InputStream inputStream = context.getAssets().open(uri.getPath().substring(1));
+            try {
+                return BitmapRegionDecoder.newInstance(inputStream, false);
+            } finally {
+                inputStream.close();
+            }
+        } else if (scheme.equalsIgnoreCase("file")
+                || scheme.equalsIgnoreCase("")) {
+            return BitmapRegionDecoder.newInstance(uri.getPath(), false);
+        }
+        return null;
+    }
+
+    private static Bitmap getBitmapFromNetwork(Context context, Uri uri, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        DiskCache diskCache = getDiskCache(context);
+        String    cacheKey  = DiskCache.hashKey(uri.toString());
+        return getBitmapFromStream(diskCache, cacheKey, uri, loadOptions, listener, signal, metrics);
+    }
+
+    private static Bitmap getBitmapFromCacheFile(DiskCache diskCache, String cacheKey, File cacheFile, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        ParcelFileDescriptor fileDescriptor = ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        Options              options        = new Options();
+        try {
+            DecodeSource source = exifThumbnailSource(fileDescriptorSource(fileDescriptor.getFileDescriptor(), 0), cacheFile.getAbsolutePath());
+            if (!decodeBounds(source, options, metrics)) {
+                // Undecodable content, don't keep serving it
+                diskCache.remove(cacheKey);
+                return null;
+            }
+            return decodeSampled(source, options, loadOptions, listener, signal, metrics);
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    /**
+     * Decode the image while it is still downloading. The network stream is teed
+     * into the disk cache, the bounds come from the header bytes and the decoder
+     * consumes the body as it arrives, so the decoding overlaps the network I/O.
+     * The cached copy is committed once the body is complete. A fresh or revalidated
+     * cached image is decoded from its file without downloading it again.
+     */
+    private static Bitmap getBitmapFromStream(DiskCache diskCache, String cacheKey, Uri uri, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        final ImageDownload download   = new ImageDownload(diskCache, cacheKey, uri.toString(), metrics);
+        final Options       options    = new Options();
+        File                cachedFile = null;
+        File                cacheFile  = null;
+        Bitmap              bitmap     = null;
+
+        // A blocked socket read ignores interruption, tear the connection down instead
+        signal.throwIfCanceled();
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+
+            @Override
+            public void onCancel() {
+                options.requestCancelDecode();
+                download.disconnect();
+            }
+
+        });
+        try {
+            cachedFile = download.connect(signal);
+            if (cachedFile == null) {
+                InputStream inputStream = new BufferedInputStream(download.openBody(listener, signal), STREAM_BUFFER_SIZE);
+
+                // Read the bounds from the header, then rewind for the full decoding
+                inputStream.mark(STREAM_MARK_LIMIT);
+                options.inJustDecodeBounds = true;
+                metrics.begin(LoadMetrics.STAGE_BOUNDS);
+                BitmapFactory.decodeStream(inputStream, null, options);
+                metrics.end(LoadMetrics.STAGE_BOUNDS);
+                if (options.outWidth > 0 && rewind(inputStream)) {
+                    DecodePlan plan = applyDecodePlan(options, loadOptions, options.outWidth, options.outHeight, LIMIT_IMAGE_PIXELS);
+                    metrics.setScaled(plan.isScaled());
+                    metrics.begin(LoadMetrics.STAGE_DECODE);
+                    try {
+                        bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+                    } catch (IllegalArgumentException exp) {
+                        // The pooled bitmap cannot hold this image, the cached file is decoded instead
+                        bitmap = null;
+                    } catch (OutOfMemoryError err) {
+                        bitmap = null;
+                    } finally {
+                        metrics.end(LoadMetrics.STAGE_DECODE);
                     }
-                } while (readCount >= 0);
+                    releaseUnusedBitmap(options, bitmap);
+                } else if (options.outWidth <= 0) {
+                    download.discard();
+                }
+                cacheFile = download.commit();
+            }
+        } catch (IOException exp) {
+            if (signal.isCanceled()) {
+                // Read failed because we disconnected it, the partial download is kept to be resumed
+                long totalCount = download.getTotalCount();
+                long readCount  = download.getReadCount();
+                getImageLoader().mStatistics.onCancelledDownload(totalCount > 0 ? totalCount - readCount : 0);
+                throw new OperationCanceledException();
+            }
+            throw exp;
+        } finally {
+            signal.setOnCancelListener(null);
+            releaseUnusedBitmap(options, bitmap);
+            download.release();
+        }
+
+        throwIfDecodeCanceled(signal);
+        if (cachedFile != null) {
+            if (listener != null) {
+                listener.onProgress(1f);
+            }
+            return getBitmapFromCacheFile(diskCache, cacheKey, cachedFile, loadOptions, listener, signal, metrics);
+        } else if (bitmap == null && cacheFile != null) {
+            // Such as a header larger than the mark limit, decode the cached copy instead
+            return getBitmapFromCacheFile(diskCache, cacheKey, cacheFile, loadOptions, listener, signal, metrics);
+        }
+        return finishDecoding(bitmap, options);
+    }
+
+    private static boolean rewind(InputStream inputStream) {
+        try {
+            inputStream.reset();
+            return true;
+        } catch (IOException exp) {
+            // Read beyond the mark limit
+            return false;
+        }
+    }
+
+    /**
+     * Download the image into the disk cache, a fresh cached image needs no network I/O
+     * and a stale one only a revalidation
+     * @return the cached file, or null if no disk cache is available
+     */
+    private static File getCacheFileFromNetwork(Context context, Uri uri, OnFinishedListener listener, CancellationSignal signal) throws IOException {
+        DiskCache diskCache = getDiskCache(context);
+        String    cacheKey  = DiskCache.hashKey(uri.toString());
+        if (diskCache == null) {
+            return null;
+        }
+
+        final ImageDownload download  = new ImageDownload(diskCache, cacheKey, uri.toString(), new LoadMetrics(uri.toString()));
+        File                cacheFile = null;
+
+        // A blocked socket read ignores interruption, tear the connection down instead
+        signal.throwIfCanceled();
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+
+            @Override
+            public void onCancel() {
+                download.disconnect();
+            }
+
+        });
+        try {
+            cacheFile = download.connect(signal);
+            if (cacheFile == null) {
+                download.openBody(listener, signal);
+                cacheFile = download.commit();
+            } else if (listener != null) {
+                listener.onProgress(1f);
+            }
+        } catch (IOException exp) {
+            if (signal.isCanceled()) {
+                // Read failed because we disconnected it, the partial download is kept to be resumed
+                long totalCount = download.getTotalCount();
+                long readCount  = download.getReadCount();
+                getImageLoader().mStatistics.onCancelledDownload(totalCount > 0 ? totalCount - readCount : 0);
+                throw new OperationCanceledException();
+            }
+            throw exp;
+        } finally {
+            signal.setOnCancelListener(null);
+            download.release();
+        }
+        return cacheFile;
+    }
+
+    /**
+     * Let a raised signal abort the decoding with these options
+     */
+    private static void watchCancellation(CancellationSignal signal, final Options options) {
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+
+            @Override
+            public void onCancel() {
+                options.requestCancelDecode();
+            }
+
+        });
+    }
+
+    private static void throwIfDecodeCanceled(CancellationSignal signal) {
+        if (signal.isCanceled()) {
+            getImageLoader().mStatistics.onCancelledDecode();
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Decode through the single descriptor of the provider, an asset descriptor
+     * of a provider may start in the middle of its file
+     */
+    private static Bitmap getBitmapFromContentProvider(Context context, Uri uri, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        ContentResolver     resolver       = context.getContentResolver();
+        AssetFileDescriptor fileDescriptor = resolver.openAssetFileDescriptor(uri, "r");
+        if (fileDescriptor == null) {
+            return null;
+        }
+
+        DecodeSource source  = fileDescriptorSource(fileDescriptor.getFileDescriptor(), fileDescriptor.getStartOffset());
+        long         imageId = getMediaStoreImageId(uri);
+        if (imageId >= 0) {
+            source = mediaStoreThumbnailSource(source, resolver, uri.getPathSegments().get(0), imageId);
+        }
+        try {
+            Options options = new Options();
+            return decodeBounds(source, options, metrics) ? decodeSampled(source, options, loadOptions, listener, signal, metrics) : null;
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    /**
+     * Decode an asset straight from the package file, a compressed asset
+     * has no descriptor and is decoded from its native asset stream
+     */
+    private static Bitmap getBitmapFromAsset(Context context, Uri uri, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        String              assetPath      = uri.getPath().substring(1);
+        AssetFileDescriptor fileDescriptor = null;
+        try {
+            fileDescriptor = context.getAssets().openFd(assetPath);
+        } catch (FileNotFoundException exp) {
+            InputStream inputStream = context.getAssets().open(assetPath);
+            try {
+                DecodeSource source  = assetStreamSource(inputStream);
+                Options      options = new Options();
+                return decodeBounds(source, options, metrics) ? decodeSampled(source, options, loadOptions, listener, signal, metrics) : null;
             } finally {
-                fout.flush();
-                fout.close();
+                inputStream.close();
             }
         }
 
         try {
-            options.inJustDecodeBounds = false;
-            bitmap = BitmapFactory.decodeFile(cacheFile.getAbsolutePath(), options);
+            return decodeFileDescriptor(fileDescriptor.getFileDescriptor(), fileDescriptor.getStartOffset(),
+                    loadOptions, listener, signal, metrics);
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    private static Bitmap getBitmapFromFile(Context context, Uri uri, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) throws IOException {
+        ParcelFileDescriptor fileDescriptor = ParcelFileDescriptor.open(new File(uri.getPath()), ParcelFileDescriptor.MODE_READ_ONLY);
+        try {
+            DecodeSource source  = exifThumbnailSource(fileDescriptorSource(fileDescriptor.getFileDescriptor(), 0), uri.getPath());
+            Options      options = new Options();
+            return decodeBounds(source, options, metrics) ? decodeSampled(source, options, loadOptions, listener, signal, metrics) : null;
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    private static Bitmap decodeFileDescriptor(FileDescriptor fileDescriptor, long startOffset, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) {
+        DecodeSource source  = fileDescriptorSource(fileDescriptor, startOffset);
+        Options      options = new Options();
+        return decodeBounds(source, options, metrics) ? decodeSampled(source, options, loadOptions, listener, signal, metrics) : null;
+    }
+
+    /**
+     * Read the image bounds into the options
+     * @return false if the content is not a decodable image
+     */
+    private static boolean decodeBounds(DecodeSource source, Options options, LoadMetrics metrics) {
+        options.inJustDecodeBounds = true;
+        metrics.begin(LoadMetrics.STAGE_BOUNDS);
+        source.decode(options);
+        metrics.end(LoadMetrics.STAGE_BOUNDS);
+        return options.outWidth > 0 && options.outHeight > 0;
+    }
+
+    /**
+     * Decode an image whose bounds are in the options, sampled down to the
+     * target size of the load options, after a preview if one is asked for
+     */
+    private static Bitmap decodeSampled(DecodeSource source, Options options, LoadOptions loadOptions, OnFinishedListener listener, CancellationSignal signal, LoadMetrics metrics) {
+        int    imageWidth  = options.outWidth;
+        int    imageHeight = options.outHeight;
+        Bitmap bitmap      = null;
+        try {
+            DecodePlan plan = applyDecodePlan(options, loadOptions, imageWidth, imageHeight, LIMIT_IMAGE_PIXELS);
+            metrics.setScaled(plan.isScaled());
+            if (loadOptions.isPreviewEnabled() || loadOptions.isThumbnailPreviewEnabled()) {
+                metrics.begin(LoadMetrics.STAGE_PREVIEW);
+                if (!decodeThumbnailPreview(source, options.inPreferredConfig, loadOptions, plan, imageWidth, imageHeight, listener, signal)) {
+                    decodePreview(source, options.inPreferredConfig, loadOptions, plan, imageWidth, imageHeight, listener, signal);
+                }
+                metrics.end(LoadMetrics.STAGE_PREVIEW);
+            }
+            watchCancellation(signal, options);
+            metrics.begin(LoadMetrics.STAGE_DECODE);
+            bitmap = decodeBitmap(source, options);
         } catch (OutOfMemoryError errPrev) {
             try {
-                options.inSampleSize = ImageUtils.adviseSamplaSize(
-                        options.outWidth, options.outHeight,
-                        LIMIT_IMAGE_WIDTH, LIMIT_IMAGE_HEIGHT
-                );
-                options.inJustDecodeBounds = false;
-                bitmap = BitmapFactory.decodeFile(cacheFile.getAbsolutePath(), options);
+                // Retry with a quarter of the pixels
+                releaseUnusedBitmap(options, null);
+                DecodePlan plan = applyDecodePlan(options, loadOptions, imageWidth, imageHeight, LIMIT_IMAGE_PIXELS / 4);
+                metrics.setScaled(plan.isScaled());
+                bitmap = decodeBitmap(source, options);
             } catch (OutOfMemoryError errNext) {
                 bitmap = null;
-                cacheFile.delete();
             }
         } catch (Throwable thr) {
             thr.printStackTrace();
-            cacheFile.delete();
+        } finally {
+            metrics.end(LoadMetrics.STAGE_DECODE);
+            signal.setOnCancelListener(null);
+            releaseUnusedBitmap(options, bitmap);
         }
 
-        try {
-            if (inputStream != null) {
-                inputStream.close();
-            }
-        } catch (IOException exp) {}
-        cacheFile.delete();
+        throwIfDecodeCanceled(signal);
+        return finishDecoding(bitmap, options);
+    }
+
+    /**
+     * Setup the options to decode the image right at the size needed by the target
+     * size and the max zoom of the load options, in a single allocation
+     * @return the decode plan applied to the options
+     */
+    private static DecodePlan applyDecodePlan(Options options, LoadOptions loadOptions, int imageWidth, int imageHeight, long maxPixels) {
+        DecodePlan plan = DecodePlan.compute(imageWidth, imageHeight,
+                loadOptions.getTargetWidth(), loadOptions.getTargetHeight(),
+                loadOptions.getMaxZoom(), maxPixels);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize       = plan.getSampleSize();
+        options.inScaled           = plan.isScaled();
+        options.inDensity          = plan.isScaled() ? plan.getDensity() : 0;
+        options.inTargetDensity    = plan.isScaled() ? plan.getTargetDensity() : 0;
+        options.inPreferredConfig  = selectConfig(loadOptions, options.outMimeType);
+        prepareBitmapReuse(options, plan.getWidth(), plan.getHeight());
+        return plan;
+    }
+
+    /**
+     * The preferred config of the load options, or RGB_565 for an image which
+     * cannot have alpha when saving memory, it takes half the bytes of ARGB_8888
+     * @param mimeType the mime type read with the bounds
+     */
+    private static Bitmap.Config selectConfig(LoadOptions loadOptions, String mimeType) {
+        if (loadOptions.isMemorySavingEnabled() && isOpaqueFormat(mimeType)) {
+            return Bitmap.Config.RGB_565;
+        }
+        return loadOptions.getPreferredConfig();
+    }
+
+    /**
+     * JPEG has no alpha channel at all. PNG and WebP may have one, whether
+     * they use it is only known once they are decoded.
+     */
+    private static boolean isOpaqueFormat(String mimeType) {
+        return "image/jpeg".equalsIgnoreCase(mimeType);
+    }
+
+    /**
+     * Let the decoder write into a pooled bitmap of the decoded size
+     */
+    private static void prepareBitmapReuse(Options options, int width, int height) {
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap  = getImageLoader().mBitmapPool.get(width, height, config);
+    }
+
+    /**
+     * The density pair of a planned decoding is a scale ratio, not a screen
+     * density, keep it away from the drawables showing the bitmap
+     */
+    private static Bitmap finishDecoding(Bitmap bitmap, Options options) {
+        if (bitmap != null && options.inScaled) {
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        }
         return bitmap;
     }
 
-    private static Bitmap getBitmapFromContentProvider(Context context, Uri uri) throws IOException {
-        ContentResolver      resolver       = context.getContentResolver();
-        ParcelFileDescriptor fileDescriptor = resolver.openFileDescriptor(uri, "r");
-        Options              options        = new Options();
-        Rect                 outRect        = null;
-        Bitmap               result         = null;
+    /**
+     * Give the pooled bitmap of the options back if the decoder didn't take it
+     */
+    private static void releaseUnusedBitmap(Options options, Bitmap decoded) {
+        if (options.inBitmap != null && options.inBitmap != decoded) {
+            getImageLoader().mBitmapPool.put(options.inBitmap);
+        }
+        options.inBitmap = null;
+    }
 
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, options);
-        if (outRect == null) {
-            outRect = new Rect(0, 0, options.outWidth, options.outHeight);
+    /**
+     * Decode a small preview of the image before the full decoding, so the view has
+     * something to show right away. Skipped when the full decoding is cheap already.
+     */
+    private static void decodePreview(DecodeSource source, Bitmap.Config config, LoadOptions loadOptions, DecodePlan fullPlan,
+                                      int imageWidth, int imageHeight, OnFinishedListener listener, CancellationSignal signal) {
+        if (!loadOptions.isPreviewEnabled() || listener == null || signal.isCanceled()) {
+            return;
         }
 
-        int limitWidth = outRect.width();
-        int limitHeight = outRect.height();
-        int advisedSampleSize = ImageUtils.adviseSamplaSize(
-                options.outWidth, options.outHeight,
-                limitWidth, limitHeight);
-        float scale = ImageUtils.adviseImageScale(
-                options.outWidth, options.outHeight,
-                limitWidth, limitHeight);
+        DecodePlan previewPlan = DecodePlan.compute(imageWidth, imageHeight,
+                loadOptions.getTargetWidth() / PREVIEW_TARGET_DIVISOR,
+                loadOptions.getTargetHeight() / PREVIEW_TARGET_DIVISOR,
+                1f, LIMIT_IMAGE_PIXELS / (PREVIEW_TARGET_DIVISOR * PREVIEW_TARGET_DIVISOR));
+        if (previewPlan.getSampleSize() < fullPlan.getSampleSize() * PREVIEW_MIN_SAMPLE_RATIO) {
+            return;
+        }
 
-        options.inJustDecodeBounds = false;
-        options.inSampleSize = advisedSampleSize;
-        options.inPreferredConfig = android.graphics.Bitmap.Config.ARGB_8888;
-        result = BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, options);
-        fileDescriptor.close();
+        Options options = new Options();
+        Bitmap  preview = null;
+        options.inSampleSize      = previewPlan.getSampleSize();
+        options.inPreferredConfig = config;
+        prepareBitmapReuse(options, previewPlan.getWidth(), previewPlan.getHeight());
+        watchCancellation(signal, options);
+        try {
+            preview = decodeBitmap(source, options);
+        } catch (OutOfMemoryError err) {
+            preview = null;
+        } finally {
+            signal.setOnCancelListener(null);
+            releaseUnusedBitmap(options, preview);
+        }
+        if (preview == null) {
+            return;
+        } else if (signal.isCanceled()) {
+            getImageLoader().mBitmapPool.put(preview);
+            return;
+        }
+
+        // Held while delivering, every receiver retains its own reference
+        retainBitmap(preview);
+        listener.onPreview(preview);
+        releaseBitmap(preview);
+    }
+
+    /**
+     * Deliver the thumbnail embedded in the image or kept by MediaStore as the preview,
+     * it takes a few milliseconds where even a sampled decoding of the image takes more
+     * @return true if a thumbnail was delivered
+     */
+    private static boolean decodeThumbnailPreview(DecodeSource source, Bitmap.Config config, LoadOptions loadOptions, DecodePlan fullPlan,
+                                                  int imageWidth, int imageHeight, OnFinishedListener listener, CancellationSignal signal) {
+        if (!loadOptions.isThumbnailPreviewEnabled() || listener == null || signal.isCanceled()) {
+            return false;
+        }
+
+        Options options   = new Options();
+        Bitmap  thumbnail = null;
+        options.inPreferredConfig = config;
+        options.inMutable         = true;
+        try {
+            thumbnail = source.decodeThumbnail(options);
+        } catch (OutOfMemoryError err) {
+            thumbnail = null;
+        }
+        if (thumbnail == null) {
+            return false;
+        }
+
+        // A thumbnail padded or rotated against the image would jump when the image replaces it
+        float imageRatio     = (float) imageWidth / imageHeight;
+        float thumbnailRatio = (float) thumbnail.getWidth() / thumbnail.getHeight();
+        if (Math.abs(thumbnailRatio - imageRatio) > imageRatio * THUMBNAIL_RATIO_TOLERANCE
+                || thumbnail.getWidth() >= fullPlan.getWidth() || signal.isCanceled()) {
+            getImageLoader().mBitmapPool.put(thumbnail);
+            return false;
+        }
+
+        // Held while delivering, every receiver retains its own reference
+        retainBitmap(thumbnail);
+        listener.onPreview(thumbnail);
+        releaseBitmap(thumbnail);
+        return true;
+    }
+
+    /**
+     * Bytes of an image which can be decoded several times, such as the bounds,
+     * the preview and the full image
+     */
+    private static abstract class DecodeSource {
+        abstract Bitmap decode(Options options);
+
+        /**
+         * Decode a thumbnail stored along the image without decoding the image
+         * @return null if there is none
+         */
+        Bitmap decodeThumbnail(Options options) {
+            return null;
+        }
+    }
+
+    private static DecodeSource fileDescriptorSource(final FileDescriptor fileDescriptor, final long startOffset) {
+        return new DecodeSource() {
 
-        int scaledWidth = (int) (options.outWidth * scale);
-        int scaledHeight = (int) (options.outHeight * scale);
-        Bitmap sampledBitmap = result;
-        if (scaledWidth != options.outWidth || scaledHeight != options.outHeight) {
-            if (scaledWidth > limitWidth || scaledHeight > limitHeight) {
-                result = Bitmap.createScaledBitmap(sampledBitmap,
-                        scaledWidth, scaledHeight, true);
-                sampledBitmap.recycle();
-                sampledBitmap = null;
+            @Override
+            Bitmap decode(Options options) {
+                // Every pass starts at the image, which is not at 0 inside a package file
+                try {
+                    Os.lseek(fileDescriptor, startOffset, OsConstants.SEEK_SET);
+                } catch (ErrnoException exp) {
+                    // A pipe can't seek, it is decoded from where it is
+                }
+                return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+            }
+
+        };
+    }
+
+    /**
+     * A source whose thumbnail comes from the EXIF data of the file, such as a camera JPEG
+     */
+    private static DecodeSource exifThumbnailSource(final DecodeSource source, final String path) {
+        return new DecodeSource() {
+
+            @Override
+            Bitmap decode(Options options) {
+                return source.decode(options);
+            }
+
+            @Override
+            Bitmap decodeThumbnail(Options options) {
+                try {
+                    ExifInterface exif      = new ExifInterface(path);
+                    byte[]        thumbnail = exif.hasThumbnail() ? exif.getThumbnail() : null;
+                    return thumbnail == null ? null : BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+                } catch (IOException exp) {
+                    return null;
+                }
             }
+
+        };
+    }
+
+    /**
+     * @return the id of a MediaStore image, such as content://media/external/images/media/42,
+     *         -1 for any other uri, even a MediaStore one not ending with a number
+     */
+    private static long getMediaStoreImageId(Uri uri) {
+        if (!MediaStore.AUTHORITY.equals(uri.getAuthority()) || uri.getPath() == null || !uri.getPath().contains("/images/")) {
+            return -1;
+        }
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException exp) {
+            return -1;
         }
+    }
+
+    /**
+     * A source whose thumbnail is the mini thumbnail MediaStore already keeps for an
+     * image of it. Thumbnails.getThumbnail() would generate a missing one from the
+     * full image, slower than the preview it is for, so only an existing one is read.
+     */
+    private static DecodeSource mediaStoreThumbnailSource(final DecodeSource source, final ContentResolver resolver,
+                                                          final String volumeName, final long imageId) {
+        return new DecodeSource() {
+
+            @Override
+            Bitmap decode(Options options) {
+                return source.decode(options);
+            }
 
-        return result;
+            @Override
+            Bitmap decodeThumbnail(Options options) {
+                Uri  thumbnailsUri = MediaStore.Images.Thumbnails.getContentUri(volumeName);
+                long thumbnailId   = queryMiniThumbnailId(resolver, thumbnailsUri, imageId);
+                if (thumbnailId < 0) {
+                    return null;
+                }
+
+                try {
+                    ParcelFileDescriptor fileDescriptor = resolver.openFileDescriptor(
+                            ContentUris.withAppendedId(thumbnailsUri, thumbnailId), "r");
+                    if (fileDescriptor == null) {
+                        return null;
+                    }
+                    try {
+                        return BitmapFactory.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), null, options);
+                    } finally {
+                        fileDescriptor.close();
+                    }
+                } catch (IOException exp) {
+                    // The row outlived its file
+                    return null;
+                }
+            }
+
+        };
     }
 
-    private static Bitmap getBitmapFromAsset(Context context, Uri uri) {
-        return null;
+    /**
+     * @return the id of the mini thumbnail row of the image, -1 if none was generated yet
+     */
+    private static long queryMiniThumbnailId(ContentResolver resolver, Uri thumbnailsUri, long imageId) {
+        Cursor cursor = resolver.query(thumbnailsUri,
+                new String[] {MediaStore.Images.Thumbnails._ID},
+                MediaStore.Images.Thumbnails.IMAGE_ID + "=? AND " + MediaStore.Images.Thumbnails.KIND + "=?",
+                new String[] {String.valueOf(imageId), String.valueOf(MediaStore.Images.Thumbnails.MINI_KIND)},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
     }
 
-    private static Bitmap getBitmapFromFile(Context context, Uri uri) {
-        return null;
+    private static DecodeSource assetStreamSource(final InputStream inputStream) {
+        // An asset stream can be reset to any mark, it is decoded natively without a Java buffer
+        inputStream.mark(Integer.MAX_VALUE);
+        return new DecodeSource() {
+
+            @Override
+            Bitmap decode(Options options) {
+                try {
+                    inputStream.reset();
+                } catch (IOException exp) {
+                    return null;
+                }
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            }
+
+        };
+    }
+
+    private static Bitmap decodeBitmap(DecodeSource source, Options options) {
+        try {
+            return source.decode(options);
+        } catch (IllegalArgumentException exp) {
+            // The pooled bitmap cannot hold this image, decode into a new one
+            releaseUnusedBitmap(options, null);
+            return source.decode(options);
+        }
     }
 
 }
@@ -0,0 +1,178 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Stage timings of one image request of ImageLoader. A stage the request
+ * never went through, such as the download of a local image, stays unset.
+ * The scaling is done by the decoder itself through a density pair, see
+ * {@link DecodePlan}, so its cost is part of STAGE_DECODE and isScaled()
+ * tells the decodes which scaled.
+ * @Author Cocoonshu
+ * @Date   2016-11-23 10:04:51
+ */
+public class LoadMetrics {
+
+    public static final int    STAGE_QUEUE      = 0;
+    public static final int    STAGE_CONNECT    = 1;
+    public static final int    STAGE_FIRST_BYTE = 2;
+    public static final int    STAGE_DOWNLOAD   = 3;
+    public static final int    STAGE_BOUNDS     = 4;
+    public static final int    STAGE_PREVIEW    = 5;
+    public static final int    STAGE_DECODE     = 6;
+    public static final int    STAGE_DELIVERY   = 7;
+    public static final int    STAGE_COUNT      = 8;
+
+    public static final int    OUTCOME_LOCAL       = 0;
+    public static final int    OUTCOME_MEMORY_HIT  = 1;
+    public static final int    OUTCOME_DISK_HIT    = 2;
+    public static final int    OUTCOME_REVALIDATED = 3;
+    public static final int    OUTCOME_STALE       = 4;
+    public static final int    OUTCOME_DOWNLOADED  = 5;
+    public static final int    OUTCOME_RESUMED     = 6;
+    public static final int    OUTCOME_COUNT       = 7;
+
+    private static final String[] STAGE_NAMES   = {
+            "queue", "connect", "firstByte", "download", "bounds", "preview", "decode", "delivery"
+    };
+    private static final String[] OUTCOME_NAMES = {
+            "local", "memoryHit", "diskHit", "revalidated", "stale", "downloaded", "resumed"
+    };
+
+    private final String  mSource;
+    private final long[]  mStageTimes       = new long[STAGE_COUNT];
+    private final long[]  mStageStarts      = new long[STAGE_COUNT];
+    private int           mCacheOutcome     = OUTCOME_LOCAL;
+    private long          mTransferredBytes = 0;
+    private long          mDecodedBytes     = 0;
+    private Bitmap.Config mDecodedConfig    = null;
+    private boolean       mIsScaled         = false;
+    private boolean       mIsSuccessful     = false;
+
+    /**
+     * @param source the uri of the requested image
+     */
+    LoadMetrics(String source) {
+        mSource = source;
+        Arrays.fill(mStageTimes, -1);
+    }
+
+    void begin(int stage) {
+        mStageStarts[stage] = System.nanoTime();
+    }
+
+    void end(int stage) {
+        if (mStageStarts[stage] != 0) {
+            add(stage, System.nanoTime() - mStageStarts[stage]);
+            mStageStarts[stage] = 0;
+        }
+    }
+
+    /**
+     * Account a stage measured by someone else, a stage gone through
+     * several times adds up
+     */
+    void add(int stage, long nanos) {
+        mStageTimes[stage] = Math.max(mStageTimes[stage], 0) + Math.max(nanos, 0);
+    }
+
+    void setCacheOutcome(int outcome) {
+        mCacheOutcome = outcome;
+    }
+
+    void addTransferredBytes(long bytes) {
+        mTransferredBytes += bytes;
+    }
+
+    void setDecodedBitmap(long bytes, Bitmap.Config config) {
+        mDecodedBytes  = bytes;
+        mDecodedConfig = config;
+    }
+
+    void setScaled(boolean scaled) {
+        mIsScaled = scaled;
+    }
+
+    void setSuccessful(boolean successful) {
+        mIsSuccessful = successful;
+    }
+
+    public final String getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return nanoseconds spent in the stage, or -1 if the request never went through it
+     */
+    public final long getStageTime(int stage) {
+        return mStageTimes[stage];
+    }
+
+    /**
+     * One of the OUTCOME_* values, where the bitmap came from
+     */
+    public final int getCacheOutcome() {
+        return mCacheOutcome;
+    }
+
+    /**
+     * Bytes received from the network, a resumed download only counts the new ones
+     */
+    public final long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
+    /**
+     * Bytes of the decoded bitmap, 0 if nothing was decoded
+     */
+    public final long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    public final Bitmap.Config getDecodedConfig() {
+        return mDecodedConfig;
+    }
+
+    /**
+     * Bytes an ARGB_8888 bitmap would have taken over the decoded one
+     */
+    public final long getSavedBytes() {
+        return mDecodedConfig == Bitmap.Config.RGB_565 ? mDecodedBytes : 0;
+    }
+
+    public final boolean isScaled() {
+        return mIsScaled;
+    }
+
+    public final boolean isSuccessful() {
+        return mIsSuccessful;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public static String getOutcomeName(int outcome) {
+        return OUTCOME_NAMES[outcome];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LoadMetrics[");
+        builder.append(mSource)
+               .append(", ").append(OUTCOME_NAMES[mCacheOutcome])
+               .append(", bytes=").append(mTransferredBytes);
+        if (mDecodedConfig != null) {
+            builder.append(", decoded=").append(mDecodedBytes).append('/').append(mDecodedConfig);
+        }
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (mStageTimes[stage] >= 0) {
+                builder.append(", ").append(STAGE_NAMES[stage]).append('=')
+                       .append(mStageTimes[stage] / 1000).append("us");
+            }
+        }
+        return builder.append(mIsSuccessful ? "" : ", failed").append(']').toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+
+/**
+ * Decode options of ImageLoader
+ * @Author Cocoonshu
+ * @Date   2016-11-14 10:21:36
+ */
+public class LoadOptions {
+
+    private int           mTargetWidth        = ImageLoader.LIMIT_IMAGE_WIDTH;
+    private int           mTargetHeight       = ImageLoader.LIMIT_IMAGE_HEIGHT;
+    private Bitmap.Config mPreferredConfig    = Bitmap.Config.ARGB_8888;
+    private boolean       mMemoryCacheEnabled = true;
+    private int           mPriority           = ImageLoader.PRIORITY_VISIBLE;
+    private float         mMaxZoom            = 1f;
+    private boolean       mPreviewEnabled     = false;
+    private boolean       mThumbnailEnabled   = false;
+    private boolean       mMemorySaving       = false;
+
+    public LoadOptions() {
+
+    }
+
+    public LoadOptions setTargetSize(int width, int height) {
+        mTargetWidth  = width;
+        mTargetHeight = height;
+        return this;
+    }
+
+    public LoadOptions setPreferredConfig(Bitmap.Config config) {
+        mPreferredConfig = config;
+        return this;
+    }
+
+    public LoadOptions setMemoryCacheEnabled(boolean enabled) {
+        mMemoryCacheEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * @param priority PRIORITY_VISIBLE, PRIORITY_PREFETCH or PRIORITY_BACKGROUND of ImageLoader
+     */
+    public LoadOptions setPriority(int priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    /**
+     * Zoom in factor over the size fitted into the target size which should still
+     * look sharp, the decoded bitmap is never larger than the image itself.
+     */
+    public LoadOptions setMaxZoom(float maxZoom) {
+        mMaxZoom = maxZoom;
+        return this;
+    }
+
+    /**
+     * Deliver a low resolution preview through OnFinishedListener.onPreview
+     * before the full image, when the full decoding is expensive
+     */
+    public LoadOptions setPreviewEnabled(boolean enabled) {
+        mPreviewEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Deliver the thumbnail embedded in the EXIF data or kept by MediaStore through
+     * OnFinishedListener.onPreview before decoding the image, when there is one
+     */
+    public LoadOptions setThumbnailPreviewEnabled(boolean enabled) {
+        mThumbnailEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Decode the images which cannot have alpha, such as JPEG photos, as RGB_565
+     * instead of the preferred config, with half of the bytes per pixel
+     */
+    public LoadOptions setMemorySavingEnabled(boolean enabled) {
+        mMemorySaving = enabled;
+        return this;
+    }
+
+    public final int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    public final int getTargetHeight() {
+        return mTargetHeight;
+    }
+
+    public final Bitmap.Config getPreferredConfig() {
+        return mPreferredConfig;
+    }
+
+    public final boolean isMemoryCacheEnabled() {
+        return mMemoryCacheEnabled;
+    }
+
+    public final int getPriority() {
+        return mPriority;
+    }
+
+    public final float getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    public final boolean isPreviewEnabled() {
+        return mPreviewEnabled;
+    }
+
+    public final boolean isThumbnailPreviewEnabled() {
+        return mThumbnailEnabled;
+    }
+
+    public final boolean isMemorySavingEnabled() {
+        return mMemorySaving;
+    }
+}
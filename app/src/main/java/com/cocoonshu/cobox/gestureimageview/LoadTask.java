@@ -0,0 +1,317 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A pending decode work of ImageLoader shared by all callers asking
+ * for the same image. Every caller holds its own {@link Subscription},
+ * the work itself is cancelled only when all subscriptions are cancelled.
+ * Cancelling the work raises a CancellationSignal, so the worker can stop
+ * the download and the bitmap decoding right where they are.
+ * @Author Cocoonshu
+ * @Date   2016-11-17 11:08:45
+ */
+abstract class LoadTask implements Runnable, ImageLoader.Prioritized {
+
+    private final BitmapCache.Key                mKey;
+    private final Map<BitmapCache.Key, LoadTask> mPendingTasks;
+    private final FutureTask<Bitmap>             mFuture;
+    private final List<Subscription>             mSubscriptions = new ArrayList<Subscription>();
+    private final ImageLoader.OnFinishedListener mDispatcher;
+    private final CancellationSignal             mSignal        = new CancellationSignal();
+    private final LoaderStatistics               mStatistics;
+    private final LoadMetrics                    mMetrics;
+    private volatile boolean                     mIsStarted     = false;
+    private volatile int                         mPriority      = ImageLoader.PRIORITY_VISIBLE;
+    private volatile long                        mSequence      = 0;
+
+    /**
+     * @param key          key of the decoded image
+     * @param pendingTasks in-flight tasks by key, also the lock of the subscriptions
+     * @param statistics   counters of the avoided work
+     * @param priority     scheduling priority of the first caller
+     * @param sequence     scheduling order within a same priority
+     * @param metrics      stage timings of this work, queued from now on
+     */
+    LoadTask(BitmapCache.Key key, Map<BitmapCache.Key, LoadTask> pendingTasks, LoaderStatistics statistics,
+             int priority, long sequence, LoadMetrics metrics) {
+        mKey          = key;
+        mPendingTasks = pendingTasks;
+        mStatistics   = statistics;
+        mPriority     = priority;
+        mSequence     = sequence;
+        mMetrics      = metrics;
+        mMetrics.begin(LoadMetrics.STAGE_QUEUE);
+        mFuture       = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+
+            @Override
+            public Bitmap call() throws Exception {
+                mIsStarted = true;
+                mMetrics.end(LoadMetrics.STAGE_QUEUE);
+                return decode(mDispatcher, mSignal, mMetrics);
+            }
+
+        }) {
+
+            @Override
+            protected void done() {
+                dispatchResult();
+            }
+
+        };
+        mDispatcher   = new ImageLoader.OnFinishedListener() {
+
+            @Override
+            public void onProgress(float progress) {
+                for (Subscription subscription : snapshotSubscriptions(false)) {
+                    subscription.dispatchProgress(progress);
+                }
+            }
+
+            @Override
+            public void onPreview(Bitmap preview) {
+                for (Subscription subscription : snapshotSubscriptions(false)) {
+                    subscription.dispatchPreview(preview);
+                }
+            }
+
+            @Override
+            public void onSuccessed(Bitmap bitmap) {}
+
+            @Override
+            public void onFailed() {}
+
+        };
+    }
+
+    /**
+     * Decode the image on the worker thread
+     * @param progressListener fans the progress out to all subscribers
+     * @param signal           raised when every subscriber has cancelled
+     * @param metrics          receives the stage timings of the work
+     */
+    protected abstract Bitmap decode(ImageLoader.OnFinishedListener progressListener, CancellationSignal signal, LoadMetrics metrics) throws Exception;
+
+    /**
+     * Called on the worker thread after the result was delivered to all subscribers,
+     * the metrics are complete from now on
+     */
+    protected void onDispatched(Bitmap bitmap, LoadMetrics metrics) {}
+
+    @Override
+    public void run() {
+        mFuture.run();
+    }
+
+    public final BitmapCache.Key getKey() {
+        return mKey;
+    }
+
+    @Override
+    public int getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Must only be called while the task is out of the scheduling queue
+     */
+    final void setPriority(int priority, long sequence) {
+        mPriority = priority;
+        mSequence = sequence;
+    }
+
+    /**
+     * The highest priority of all living subscriptions
+     */
+    final int computePriority() {
+        synchronized (mPendingTasks) {
+            if (mSubscriptions.isEmpty()) {
+                return mPriority;
+            }
+
+            int priority = Integer.MIN_VALUE;
+            for (Subscription subscription : mSubscriptions) {
+                priority = Math.max(priority, subscription.mPriority);
+            }
+            return priority;
+        }
+    }
+
+    /**
+     * Attach a caller to this task, must be called with the pending tasks locked
+     */
+    final Subscription subscribe(ImageLoader.OnFinishedListener listener, int priority) {
+        Subscription subscription = new Subscription(listener, priority);
+        mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    private List<Subscription> snapshotSubscriptions(boolean detach) {
+        synchronized (mPendingTasks) {
+            List<Subscription> snapshot = new ArrayList<Subscription>(mSubscriptions);
+            if (detach) {
+                // New callers from now on start a new task, or hit the memory cache
+                if (mPendingTasks.get(mKey) == this) {
+                    mPendingTasks.remove(mKey);
+                }
+                mSubscriptions.clear();
+            }
+            return snapshot;
+        }
+    }
+
+    private void dispatchResult() {
+        List<Subscription> subscriptions = snapshotSubscriptions(true);
+        if (mFuture.isCancelled()) {
+            return;
+        }
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = mFuture.get();
+        } catch (Throwable thr) {
+            thr.printStackTrace();
+        }
+        mMetrics.setSuccessful(bitmap != null);
+        mMetrics.begin(LoadMetrics.STAGE_DELIVERY);
+        for (Subscription subscription : subscriptions) {
+            subscription.dispatchResult(bitmap);
+        }
+        mMetrics.end(LoadMetrics.STAGE_DELIVERY);
+        onDispatched(bitmap, mMetrics);
+    }
+
+    private void unsubscribe(Subscription subscription, boolean mayInterruptIfRunning) {
+        boolean cancelWork = false;
+        synchronized (mPendingTasks) {
+            if (mSubscriptions.remove(subscription) && mSubscriptions.isEmpty()) {
+                // The last subscriber is gone, nobody wants the work anymore
+                if (mPendingTasks.get(mKey) == this) {
+                    mPendingTasks.remove(mKey);
+                }
+                cancelWork = true;
+            }
+        }
+        if (cancelWork) {
+            if (!mIsStarted) {
+                mStatistics.onCancelledQueued();
+            }
+            mSignal.cancel();
+            mFuture.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    /**
+     * Handle of one caller of a shared LoadTask
+     */
+    final class Subscription implements Future<Bitmap> {
+
+        private final    ImageLoader.OnFinishedListener mListener;
+        private volatile boolean                        mIsCancelled = false;
+        private volatile int                            mPriority    = ImageLoader.PRIORITY_VISIBLE;
+
+        private Subscription(ImageLoader.OnFinishedListener listener, int priority) {
+            mListener = listener;
+            mPriority = priority;
+        }
+
+        final LoadTask getTask() {
+            return LoadTask.this;
+        }
+
+        final void setPriority(int priority) {
+            mPriority = priority;
+        }
+
+        private void dispatchProgress(float progress) {
+            if (mListener == null) {
+                return;
+            } else if (mIsCancelled) {
+                mStatistics.onDroppedCallback();
+            } else {
+                mListener.onProgress(progress);
+            }
+        }
+
+        private void dispatchPreview(Bitmap preview) {
+            if (mListener == null) {
+                return;
+            } else if (mIsCancelled) {
+                mStatistics.onDroppedCallback();
+            } else {
+                mListener.onPreview(preview);
+            }
+        }
+
+        private void dispatchResult(Bitmap bitmap) {
+            if (mListener == null) {
+                return;
+            } else if (mIsCancelled) {
+                mStatistics.onDroppedCallback();
+                return;
+            }
+            if (bitmap == null) {
+                mListener.onFailed();
+            } else {
+                mListener.onSuccessed(bitmap);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mIsCancelled) {
+                return false;
+            }
+            // Even a finished work may still be delivering, mute this caller anyway
+            mIsCancelled = true;
+            if (mFuture.isDone()) {
+                return false;
+            }
+            unsubscribe(this, mayInterruptIfRunning);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mIsCancelled || mFuture.isDone();
+        }
+
+        @Override
+        public Bitmap get() throws InterruptedException, ExecutionException {
+            if (mIsCancelled) {
+                throw new CancellationException();
+            }
+            return mFuture.get();
+        }
+
+        @Override
+        public Bitmap get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (mIsCancelled) {
+                throw new CancellationException();
+            }
+            return mFuture.get(timeout, unit);
+        }
+    }
+}
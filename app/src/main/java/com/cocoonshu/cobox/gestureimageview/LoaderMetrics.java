@@ -0,0 +1,206 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+/**
+ * In-process latency histograms of every stage of the ImageLoader requests,
+ * with the cache outcomes and transferred bytes. Each finished request is also
+ * handed to an optional listener, which may export it elsewhere.
+ * @Author Cocoonshu
+ * @Date   2016-11-23 10:37:12
+ */
+public class LoaderMetrics {
+
+    /**
+     * Receives every finished request, called on the loader worker thread
+     */
+    public interface OnLoadMetricsListener {
+        void onLoadMetrics(LoadMetrics metrics);
+    }
+
+    private Histogram[]                    mStageHistograms  = new Histogram[LoadMetrics.STAGE_COUNT];
+    private long[]                         mOutcomeCounts    = new long[LoadMetrics.OUTCOME_COUNT];
+    private long                           mRequestCount     = 0;
+    private long                           mFailedCount      = 0;
+    private long                           mTransferredBytes = 0;
+    private long                           mDecodedBytes     = 0;
+    private long                           mSavedBytes       = 0;
+    private volatile OnLoadMetricsListener mListener         = null;
+
+    LoaderMetrics() {
+        for (int stage = 0; stage < LoadMetrics.STAGE_COUNT; stage++) {
+            mStageHistograms[stage] = new Histogram();
+        }
+    }
+
+    public void setOnLoadMetricsListener(OnLoadMetricsListener listener) {
+        mListener = listener;
+    }
+
+    void record(LoadMetrics metrics) {
+        synchronized (this) {
+            for (int stage = 0; stage < LoadMetrics.STAGE_COUNT; stage++) {
+                long nanos = metrics.getStageTime(stage);
+                if (nanos >= 0) {
+                    mStageHistograms[stage].add(nanos / 1000);
+                }
+            }
+            mOutcomeCounts[metrics.getCacheOutcome()]++;
+            mRequestCount++;
+            mFailedCount      += metrics.isSuccessful() ? 0 : 1;
+            mTransferredBytes += metrics.getTransferredBytes();
+            mDecodedBytes     += metrics.getDecodedBytes();
+            mSavedBytes       += metrics.getSavedBytes();
+        }
+
+        OnLoadMetricsListener listener = mListener;
+        if (listener != null) {
+            listener.onLoadMetrics(metrics);
+        }
+    }
+
+    /**
+     * @param stage      one of LoadMetrics.STAGE_*
+     * @param percentile in [0, 1], such as 0.95f for the p95
+     * @return microseconds, within an eighth of the true value, or -1 if never measured
+     */
+    public synchronized long getPercentile(int stage, float percentile) {
+        return mStageHistograms[stage].getPercentile(percentile);
+    }
+
+    public synchronized long getStageCount(int stage) {
+        return mStageHistograms[stage].mCount;
+    }
+
+    /**
+     * @param outcome one of LoadMetrics.OUTCOME_*
+     */
+    public synchronized long getOutcomeCount(int outcome) {
+        return mOutcomeCounts[outcome];
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    public synchronized long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
+    public synchronized long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * Bytes the memory saving decodes spared against ARGB_8888. Comparing
+     * the decode percentiles of a run with and without it gives the time cost.
+     */
+    public synchronized long getSavedBytes() {
+        return mSavedBytes;
+    }
+
+    public synchronized void reset() {
+        for (Histogram histogram : mStageHistograms) {
+            histogram.clear();
+        }
+        mOutcomeCounts    = new long[LoadMetrics.OUTCOME_COUNT];
+        mRequestCount     = 0;
+        mFailedCount      = 0;
+        mTransferredBytes = 0;
+        mDecodedBytes     = 0;
+        mSavedBytes       = 0;
+    }
+
+    /**
+     * Human readable table of the percentiles in milliseconds, for logs and bug reports
+     */
+    public synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("LoaderMetrics: requests=%d, failed=%d, bytes=%d, decoded=%d, saved=%d\n",
+                mRequestCount, mFailedCount, mTransferredBytes, mDecodedBytes, mSavedBytes));
+        for (int outcome = 0; outcome < LoadMetrics.OUTCOME_COUNT; outcome++) {
+            builder.append(String.format("  %-12s %d\n", LoadMetrics.getOutcomeName(outcome), mOutcomeCounts[outcome]));
+        }
+        for (int stage = 0; stage < LoadMetrics.STAGE_COUNT; stage++) {
+            Histogram histogram = mStageHistograms[stage];
+            if (histogram.mCount == 0) {
+                continue;
+            }
+            builder.append(String.format("  %-12s n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms\n",
+                    LoadMetrics.getStageName(stage), histogram.mCount,
+                    histogram.getPercentile(0.50f) / 1000f, histogram.getPercentile(0.95f) / 1000f,
+                    histogram.getPercentile(0.99f) / 1000f, histogram.mMax / 1000f));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+    /**
+     * Log linear histogram: every power of two is split into SUB_BUCKETS linear
+     * buckets, so it is a fixed array whatever the values and a percentile is never
+     * off by more than an eighth.
+     */
+    private static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT    = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private long[] mBuckets = new long[BUCKET_COUNT];
+        private long   mCount   = 0;
+        private long   mMax     = 0;
+
+        void add(long value) {
+            value = Math.max(value, 0);
+            mBuckets[indexOf(value)]++;
+            mCount++;
+            mMax = Math.max(mMax, value);
+        }
+
+        void clear() {
+            mBuckets = new long[BUCKET_COUNT];
+            mCount   = 0;
+            mMax     = 0;
+        }
+
+        long getPercentile(float percentile) {
+            if (mCount == 0) {
+                return -1;
+            }
+
+            long rank       = Math.max(1, (long) Math.ceil(percentile * mCount));
+            long cumulative = 0;
+            for (int index = 0; index < BUCKET_COUNT; index++) {
+                cumulative += mBuckets[index];
+                if (cumulative >= rank) {
+                    return Math.min(upperBoundOf(index), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int shift    = exponent - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBoundOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int  shift = index / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the work ImageLoader avoided by sharing or cancelling requests
+ * @Author Cocoonshu
+ * @Date   2016-11-17 15:32:07
+ */
+public class LoaderStatistics {
+
+    private AtomicLong mCoalescedCount          = new AtomicLong();
+    private AtomicLong mCancelledQueuedCount    = new AtomicLong();
+    private AtomicLong mCancelledDownloadCount  = new AtomicLong();
+    private AtomicLong mSkippedDownloadBytes    = new AtomicLong();
+    private AtomicLong mCancelledDecodeCount    = new AtomicLong();
+    private AtomicLong mDroppedCallbackCount    = new AtomicLong();
+    private AtomicLong mRevalidatedCount        = new AtomicLong();
+    private AtomicLong mResumedDownloadCount    = new AtomicLong();
+    private AtomicLong mResumedBytes            = new AtomicLong();
+
+    void onCoalesced() {
+        mCoalescedCount.incrementAndGet();
+    }
+
+    void onCancelledQueued() {
+        mCancelledQueuedCount.incrementAndGet();
+    }
+
+    void onCancelledDownload(long skippedBytes) {
+        mCancelledDownloadCount.incrementAndGet();
+        if (skippedBytes > 0) {
+            mSkippedDownloadBytes.addAndGet(skippedBytes);
+        }
+    }
+
+    void onCancelledDecode() {
+        mCancelledDecodeCount.incrementAndGet();
+    }
+
+    void onDroppedCallback() {
+        mDroppedCallbackCount.incrementAndGet();
+    }
+
+    void onRevalidated() {
+        mRevalidatedCount.incrementAndGet();
+    }
+
+    void onResumedDownload(long resumedBytes) {
+        mResumedDownloadCount.incrementAndGet();
+        mResumedBytes.addAndGet(resumedBytes);
+    }
+
+    /**
+     * Requests attached to an in-flight task instead of starting a new one
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Tasks cancelled before a worker picked them up
+     */
+    public long getCancelledQueuedCount() {
+        return mCancelledQueuedCount.get();
+    }
+
+    /**
+     * Downloads stopped in the middle of the body
+     */
+    public long getCancelledDownloadCount() {
+        return mCancelledDownloadCount.get();
+    }
+
+    /**
+     * Bytes of the cancelled downloads which were never read,
+     * only counted when the server reported a content length
+     */
+    public long getSkippedDownloadBytes() {
+        return mSkippedDownloadBytes.get();
+    }
+
+    /**
+     * Bitmap decodes aborted by Options.requestCancelDecode
+     */
+    public long getCancelledDecodeCount() {
+        return mCancelledDecodeCount.get();
+    }
+
+    /**
+     * Listener callbacks not delivered because their request was cancelled
+     */
+    public long getDroppedCallbackCount() {
+        return mDroppedCallbackCount.get();
+    }
+
+    /**
+     * Stale cached images the server confirmed unchanged by a 304
+     */
+    public long getRevalidatedCount() {
+        return mRevalidatedCount.get();
+    }
+
+    /**
+     * Interrupted downloads continued by a Range request
+     */
+    public long getResumedDownloadCount() {
+        return mResumedDownloadCount.get();
+    }
+
+    /**
+     * Bytes the resumed downloads did not fetch again
+     */
+    public long getResumedBytes() {
+        return mResumedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoaderStatistics[coalesced=%d, cancelledQueued=%d, cancelledDownloads=%d, skippedBytes=%d, cancelledDecodes=%d, droppedCallbacks=%d, revalidated=%d, resumed=%d, resumedBytes=%d]",
+                getCoalescedCount(), getCancelledQueuedCount(), getCancelledDownloadCount(),
+                getSkippedDownloadBytes(), getCancelledDecodeCount(), getDroppedCallbackCount(),
+                getRevalidatedCount(), getResumedDownloadCount(), getResumedBytes());
+    }
+}
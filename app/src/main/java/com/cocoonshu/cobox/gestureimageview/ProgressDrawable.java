@@ -22,7 +22,10 @@ public class ProgressDrawable extends Drawable {
     private boolean mIsEnabled = true;
 
     public void setEnabled(boolean enabled) {
-        mIsEnabled = enabled;
+        if (mIsEnabled != enabled) {
+            mIsEnabled = enabled;
+            invalidateSelf();
+        }
     }
 
     @Override
@@ -32,6 +35,8 @@ public class ProgressDrawable extends Drawable {
             float boundsHeight = getBounds().height();
             float minEdge = Math.min(boundsWidth, boundsHeight);
 
+            canvas.save();
+            canvas.translate(getBounds().left, getBounds().top);
             mDrawArea.set(
                     (boundsWidth - minEdge) * 0.5f + 4 * STROKE_WIDTH,
                     (boundsHeight - minEdge) * 0.5f + 4 * STROKE_WIDTH,
@@ -46,11 +51,18 @@ public class ProgressDrawable extends Drawable {
 
             mPaint.setStyle(Paint.Style.FILL_AND_STROKE);
             canvas.drawArc(mDrawArea, -90, mProgress * 360, true, mPaint);
+            canvas.restore();
         }
     }
 
+    /**
+     * Only redraws the bounds of this drawable, and only if the arc changed
+     */
     public void setProgress(float progress) {
-        mProgress = progress;
+        if (mProgress != progress) {
+            mProgress = progress;
+            invalidateSelf();
+        }
     }
 
     @Override
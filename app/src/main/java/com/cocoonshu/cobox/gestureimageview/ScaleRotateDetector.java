@@ -2,9 +2,7 @@ package com.cocoonshu.cobox.gestureimageview;
 
 import android.content.Context;
 import android.graphics.PointF;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 
 import com.cocoonshu.cobox.animation.Smoother;
@@ -25,10 +23,11 @@ public class ScaleRotateDetector {
     private static final int   PROCESS_SCALE_ROTATE_BEGIN         = 0x0001;
     private static final int   PROCESS_SCALE_ROTATE               = 0x0002;
     private static final int   PROCESS_SCALE_ROTATE_END           = 0x0003;
-    private static final int   HANDLE_REQUEST_INTERPOLATER_EVENT  = 0x0004;
 
     private Context mContext                 = null;
-    private Handler mHandler                 = null;
+    private Choreographer                mChoreographer           = null;
+    private Choreographer.FrameCallback  mFrameCallback           = null;
+    private boolean                      mIsFramePosted           = false;
     private OnScaleRotateGestureListener mListener                = null;
 
     private int                          mPointerCount            = 0;
@@ -70,15 +69,13 @@ public class ScaleRotateDetector {
     public ScaleRotateDetector(Context context, OnScaleRotateGestureListener listener) {
         mContext = context;
         mListener = listener;
-        mHandler = new Handler(Looper.getMainLooper()) {
+        mChoreographer = Choreographer.getInstance();
+        mFrameCallback = new Choreographer.FrameCallback() {
 
             @Override
-            public void handleMessage(Message msg) {
-                switch (msg.what) {
-                case HANDLE_REQUEST_INTERPOLATER_EVENT:
-                    fireEventProcess(PROCESS_SCALE_ROTATE);
-                    break;
-                }
+            public void doFrame(long frameTimeNanos) {
+                mIsFramePosted = false;
+                fireEventProcess(PROCESS_SCALE_ROTATE, frameTimeNanos);
             }
 
         };
@@ -122,7 +119,7 @@ public class ScaleRotateDetector {
             if (mPointerCount == 2) {
                 computeInitializeScaleDistance();
                 computeInitializeRotateAngle();
-                fireEventProcess(PROCESS_SCALE_ROTATE_BEGIN);
+                fireEventProcess(PROCESS_SCALE_ROTATE_BEGIN, event.getEventTime() * 1000000L);
             }
             state = true;
             break;
@@ -130,7 +127,8 @@ public class ScaleRotateDetector {
             if (mPointerCount >= 2) {
                 computeCurrentScaleDistance();
                 computeCurrentRotateAngle();
-                fireEventProcess(PROCESS_SCALE_ROTATE);
+                // Delivered by the next frame, with the pointers moved until then
+                postFrame();
             }
             state = true;
             break;
@@ -138,7 +136,7 @@ public class ScaleRotateDetector {
             if (mPointerCount == 2) {
                 computeCurrentScaleDistance();
                 computeCurrentRotateAngle();
-                fireEventProcess(PROCESS_SCALE_ROTATE_END);
+                fireEventProcess(PROCESS_SCALE_ROTATE_END, event.getEventTime() * 1000000L);
             }
             state = true;
             break;
@@ -231,7 +229,23 @@ public class ScaleRotateDetector {
         }
     }
 
-    private void fireEventProcess(int fakeEvent) {
+    private void postFrame() {
+        if (!mIsFramePosted) {
+            mIsFramePosted = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private void removeFrame() {
+        mIsFramePosted = false;
+        mChoreographer.removeFrameCallback(mFrameCallback);
+    }
+
+    /**
+     * @param frameTimeNanos vsync time of the frame, or the time of the touch
+     *                       event, both on the uptime clock the smoothers step by
+     */
+    private void fireEventProcess(int fakeEvent, long frameTimeNanos) {
         switch (fakeEvent) {
         case PROCESS_SCALE_ROTATE_BEGIN:{
             if (mListener != null) {
@@ -297,15 +311,17 @@ public class ScaleRotateDetector {
                 float rotate = computeDeltaRotateAngle();
                 mRotateSmoother.setDestinationValue(rotate);
                 mScaleSmoother.setDestinationValue(scale);
-                boolean hasMoreFrames = mRotateSmoother.smooth() || mScaleSmoother.smooth();
+                // Both step on every frame, they settle independently
+                boolean hasMoreRotateFrames = mRotateSmoother.smooth(frameTimeNanos);
+                boolean hasMoreScaleFrames  = mScaleSmoother.smooth(frameTimeNanos);
 
                 mListener.onScaleRotate(
                         rotatePivotX, rotatePivotY, mIsRotateSmoothEnabled ? mRotateSmoother.getCurrentValue() : rotate,
                         scalePivotX, scalePivotY, mIsScaleSmoothEnabled ? mScaleSmoother.getCurrentValue() : scale,
                         this);
 
-                if (hasMoreFrames) {
-                    mHandler.sendEmptyMessage(HANDLE_REQUEST_INTERPOLATER_EVENT);
+                if (hasMoreRotateFrames || hasMoreScaleFrames) {
+                    postFrame();
                 }
             }
         }
@@ -338,15 +354,15 @@ public class ScaleRotateDetector {
                 float rotate = computeDeltaRotateAngle();
                 mRotateSmoother.setDestinationValue(rotate);
                 mScaleSmoother.setDestinationValue(scale);
-                mRotateSmoother.smooth();
-                mScaleSmoother.smooth();
+                mRotateSmoother.smooth(frameTimeNanos);
+                mScaleSmoother.smooth(frameTimeNanos);
 
                 mListener.onScaleRotateEnd(
                         rotatePivotX, rotatePivotY, mIsRotateSmoothEnabled ? mRotateSmoother.getCurrentValue() : rotate,
                         scalePivotX, scalePivotY, mIsScaleSmoothEnabled ? mScaleSmoother.getCurrentValue() : scale,
                         this);
 
-                mHandler.removeMessages(HANDLE_REQUEST_INTERPOLATER_EVENT);
+                removeFrame();
             }
         }
             break;
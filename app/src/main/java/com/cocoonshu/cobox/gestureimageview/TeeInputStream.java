@@ -0,0 +1,176 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.os.CancellationSignal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Network input stream which copies every byte read into an output stream,
+ * so the decoder and the disk cache consume one download at the same time.
+ * The reading progress is reported to the listener at most once per
+ * frame interval and a raised signal stops the reading right away.
+ * @Author Cocoonshu
+ * @Date   2016-11-21 10:12:36
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    private static final int  SKIP_BUFFER_SIZE     = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 16;
+
+    private OutputStream                   mBranch      = null;
+    private ImageLoader.OnFinishedListener mListener    = null;
+    private CancellationSignal             mSignal      = null;
+    private long                           mTotalCount  = 0;
+    private long                           mReadCount   = 0;
+    private boolean                        mIsEndOfFile = false;
+    private long                           mReportTime  = 0;
+    private long                           mFirstTime   = 0;
+    private long                           mEndTime     = 0;
+
+    /**
+     * @param source     the network stream
+     * @param branch     receives a copy of the bytes read, may be null
+     * @param totalCount the content length, or -1 if unknown
+     * @param listener   receives the reading progress, may be null
+     * @param signal     stops the reading when raised
+     */
+    public TeeInputStream(InputStream source, OutputStream branch, long totalCount,
+                          ImageLoader.OnFinishedListener listener, CancellationSignal signal) {
+        this(source, branch, 0, totalCount, listener, signal);
+    }
+
+    /**
+     * @param source      the network stream
+     * @param branch      receives a copy of the bytes read, may be null
+     * @param resumeCount bytes of the content already downloaded before the source starts
+     * @param totalCount  the full content length, or -1 if unknown
+     * @param listener    receives the reading progress, may be null
+     * @param signal      stops the reading when raised
+     */
+    public TeeInputStream(InputStream source, OutputStream branch, long resumeCount, long totalCount,
+                          ImageLoader.OnFinishedListener listener, CancellationSignal signal) {
+        super(source);
+        mBranch     = branch;
+        mReadCount  = resumeCount;
+        mTotalCount = totalCount;
+        mListener   = listener;
+        mSignal     = signal;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int    count  = read(single, 0, 1);
+        return count <= 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mSignal != null && mSignal.isCanceled()) {
+            throw new IOException("Reading cancelled");
+        }
+
+        int count = super.read(buffer, offset, length);
+        if (count > 0) {
+            if (mFirstTime == 0) {
+                mFirstTime = System.nanoTime();
+            }
+            if (mBranch != null) {
+                mBranch.write(buffer, offset, count);
+            }
+            mReadCount += count;
+            reportProgress(mReadCount >= mTotalCount);
+        } else if (count < 0 && !mIsEndOfFile) {
+            mIsEndOfFile = true;
+            mEndTime     = System.nanoTime();
+        }
+        return count;
+    }
+
+    /**
+     * Nobody draws faster than a frame, so don't report faster either
+     */
+    private void reportProgress(boolean isFinished) {
+        if (mListener == null || mTotalCount <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime() / 1000000;
+        if (isFinished || now - mReportTime >= PROGRESS_INTERVAL_MS) {
+            mReportTime = now;
+            mListener.onProgress((float) mReadCount / (float) mTotalCount);
+        }
+    }
+
+    /**
+     * Skipped bytes must reach the branch too, so read them through
+     */
+    @Override
+    public long skip(long byteCount) throws IOException {
+        byte[] buffer  = new byte[(int) Math.min(byteCount, SKIP_BUFFER_SIZE)];
+        long   skipped = 0;
+        while (skipped < byteCount) {
+            int count = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+            if (count < 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Read the rest of the source into the branch, the decoder
+     * may stop reading before the end of the stream.
+     */
+    public void drain() throws IOException {
+        if (mIsEndOfFile) {
+            // Already read up to the end, and maybe closed by the SequenceInputStream of a resumed body
+            return;
+        }
+        byte[] buffer = new byte[SKIP_BUFFER_SIZE];
+        while (read(buffer, 0, buffer.length) >= 0) {
+            // Keep reading
+        }
+    }
+
+    /**
+     * Bytes of the content read so far, including the resumed ones
+     */
+    public final long getReadCount() {
+        return mReadCount;
+    }
+
+    public final long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * System.nanoTime() of the first byte read, 0 if none yet
+     */
+    public final long getFirstReadTime() {
+        return mFirstTime;
+    }
+
+    /**
+     * System.nanoTime() the end of the stream was reached, 0 if not yet
+     */
+    public final long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * True if the whole content has been read
+     */
+    public final boolean isComplete() {
+        return mIsEndOfFile && (mTotalCount <= 0 || mReadCount == mTotalCount);
+    }
+}
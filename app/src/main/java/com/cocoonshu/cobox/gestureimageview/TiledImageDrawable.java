@@ -0,0 +1,309 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tiled drawable of a very large image.
+ * The intrinsic size is the full image size, a low resolution base bitmap covers
+ * the whole image, and only the tiles crossing the visible viewport are decoded
+ * by BitmapRegionDecoder at the sample level of the current scale. Decoded tiles
+ * live in a LRU cache budgeted by the viewport size, not by the image size.
+ * @Author Cocoonshu
+ * @Date   2016-11-16 16:40:52
+ */
+public class TiledImageDrawable extends Drawable {
+
+    public  static final String TAG                = "TiledImageDrawable";
+    public  static final int    TILE_SIZE          = 512;
+    public  static final int    TILE_CACHE_SCREENS = 3;
+    private static final int    TILE_BYTES         = TILE_SIZE * TILE_SIZE * 4;
+
+    private static ExecutorService sTileExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+
+        private int mThreadCounter = 0;
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TileDecoderThread #" + mThreadCounter++);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+
+    });
+
+    private BitmapRegionDecoder        mDecoder           = null;
+    private Bitmap                     mBaseBitmap        = null;
+    private int                        mBaseSampleSize    = 1;
+    private int                        mImageWidth        = 0;
+    private int                        mImageHeight       = 0;
+    private Handler                    mHandler           = new Handler(Looper.getMainLooper());
+    private Paint                      mPaint             = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Matrix                     mViewportTransform = new Matrix();
+    private Matrix                     mInverseTransform  = new Matrix();
+    private RectF                      mViewportRect      = new RectF();
+    private RectF                      mVisibleRect       = new RectF();
+    private Rect                       mTileRect          = new Rect();
+    private float[]                    mMatrixValues      = new float[9];
+    private long                       mMaxTileBytes      = TILE_BYTES * 4;
+    private long                       mTileBytes         = 0;
+    private LinkedHashMap<Long, Bitmap> mTiles            = new LinkedHashMap<Long, Bitmap>(16, 0.75f, true);
+    private Set<Long>                  mWantedTiles       = new HashSet<Long>();
+    private Set<Long>                  mPendingTiles      = new HashSet<Long>();
+    private volatile boolean           mIsRecycled        = false;
+
+    public TiledImageDrawable(BitmapRegionDecoder decoder, Bitmap baseBitmap, int baseSampleSize) {
+        mDecoder        = decoder;
+        mBaseBitmap     = baseBitmap;
+        mBaseSampleSize = baseSampleSize;
+        mImageWidth     = decoder.getWidth();
+        mImageHeight    = decoder.getHeight();
+    }
+
+    /**
+     * Update the current image transform and the display rect of the host view,
+     * the visible tiles are computed from them while drawing.
+     */
+    public void setViewport(Matrix imageTransform, RectF displayRect) {
+        mViewportTransform.set(imageTransform);
+        mViewportRect.set(displayRect);
+
+        long screenBytes = (long) (displayRect.width() * displayRect.height() * 4);
+        mMaxTileBytes = Math.max(TILE_BYTES * 4, screenBytes * TILE_CACHE_SCREENS);
+    }
+
+    public final Bitmap getBaseBitmap() {
+        return mBaseBitmap;
+    }
+
+    public final long getTileCacheSize() {
+        return mTileBytes;
+    }
+
+    public final int getTileCount() {
+        return mTiles.size();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mImageWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mImageHeight;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mIsRecycled) {
+            return;
+        }
+
+        Rect bounds = getBounds();
+        if (mBaseBitmap != null) {
+            canvas.drawBitmap(mBaseBitmap, null, bounds, mPaint);
+        }
+
+        int sampleSize = computeSampleSize();
+        synchronized (mWantedTiles) {
+            mWantedTiles.clear();
+        }
+        if (sampleSize >= mBaseSampleSize || !computeVisibleRect()) {
+            // The base bitmap is already sharp enough
+            return;
+        }
+
+        int tileImageSize = TILE_SIZE * sampleSize;
+        int level         = Integer.numberOfTrailingZeros(sampleSize);
+        int firstColumn   = (int) (mVisibleRect.left / tileImageSize);
+        int lastColumn    = (int) ((mVisibleRect.right - 1) / tileImageSize);
+        int firstRow      = (int) (mVisibleRect.top / tileImageSize);
+        int lastRow       = (int) ((mVisibleRect.bottom - 1) / tileImageSize);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long   key  = makeTileKey(level, column, row);
+                Bitmap tile = mTiles.get(key);
+                computeTileRect(column, row, tileImageSize, mTileRect);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mTileRect, mPaint);
+                } else {
+                    requestTile(key, sampleSize, mTileRect);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the region decoder and all decoded bitmaps
+     */
+    public void recycle() {
+        mIsRecycled = true;
+        synchronized (mWantedTiles) {
+            mWantedTiles.clear();
+        }
+        trimTiles(0);
+        sTileExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                // Region decoding and recycling are serialized inside the decoder
+                mDecoder.recycle();
+            }
+
+        });
+    }
+
+    /**
+     * Drop decoded tiles until the cache is less than maxBytes
+     */
+    public void trimTiles(long maxBytes) {
+        Iterator<Map.Entry<Long, Bitmap>> iterator = mTiles.entrySet().iterator();
+        while (mTileBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Long, Bitmap> eldest = iterator.next();
+            iterator.remove();
+            mTileBytes -= eldest.getValue().getAllocationByteCount();
+            eldest.getValue().recycle();
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    ///
+    /// Internal computing
+    ///
+
+    private int computeSampleSize() {
+        mViewportTransform.getValues(mMatrixValues);
+        float scaleX = mMatrixValues[Matrix.MSCALE_X];
+        float skewY  = mMatrixValues[Matrix.MSKEW_Y];
+        float scale  = (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
+        if (scale <= 0 || Float.isNaN(scale)) {
+            return mBaseSampleSize;
+        }
+
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private boolean computeVisibleRect() {
+        if (!mViewportTransform.invert(mInverseTransform)) {
+            return false;
+        }
+
+        mInverseTransform.mapRect(mVisibleRect, mViewportRect);
+        return mVisibleRect.intersect(0, 0, mImageWidth, mImageHeight);
+    }
+
+    private void computeTileRect(int column, int row, int tileImageSize, Rect outRect) {
+        outRect.set(
+                column * tileImageSize,
+                row * tileImageSize,
+                Math.min((column + 1) * tileImageSize, mImageWidth),
+                Math.min((row + 1) * tileImageSize, mImageHeight));
+    }
+
+    private static long makeTileKey(int level, int column, int row) {
+        return ((long) level << 48) | ((long) column << 24) | (long) row;
+    }
+
+    private void requestTile(final long key, final int sampleSize, Rect tileRect) {
+        synchronized (mWantedTiles) {
+            mWantedTiles.add(key);
+            if (!mPendingTiles.add(key)) {
+                return;
+            }
+        }
+
+        final Rect region = new Rect(tileRect);
+        sTileExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                Bitmap tile = null;
+                synchronized (mWantedTiles) {
+                    if (mIsRecycled || !mWantedTiles.contains(key)) {
+                        // Scrolled out before we get a chance to decode it
+                        mPendingTiles.remove(key);
+                        return;
+                    }
+                }
+
+                try {
+                    Options options = new Options();
+                    options.inSampleSize = sampleSize;
+                    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                    tile = mDecoder.decodeRegion(region, options);
+                } catch (Throwable thr) {
+                    Log.w(TAG, "[requestTile] Failed to decode tile " + region, thr);
+                }
+
+                final Bitmap decodedTile = tile;
+                mHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        synchronized (mWantedTiles) {
+                            mPendingTiles.remove(key);
+                        }
+                        if (decodedTile == null) {
+                            return;
+                        }
+                        if (mIsRecycled) {
+                            decodedTile.recycle();
+                            return;
+                        }
+
+                        Bitmap previous = mTiles.put(key, decodedTile);
+                        if (previous != null) {
+                            mTileBytes -= previous.getAllocationByteCount();
+                            previous.recycle();
+                        }
+                        mTileBytes += decodedTile.getAllocationByteCount();
+                        trimTiles(mMaxTileBytes);
+                        invalidateSelf();
+                    }
+
+                });
+            }
+
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+/**
+ * Ring buffer of the latest events of a GestureImageView, such as frames,
+ * gestures, clipping and decoding. Every slot is allocated up front and an
+ * event is a few primitive writes, so tracing costs no garbage in onDraw and
+ * the touch callbacks. Read it back with dump() when something looks wrong.
+ * @Author Cocoonshu
+ * @Date   2016-11-28 14:06:33
+ */
+public class Tracer {
+
+    public static final int EVENT_FRAME                = 0;
+    public static final int EVENT_DOWN                 = 1;
+    public static final int EVENT_UP                   = 2;
+    public static final int EVENT_SHOW_PRESS           = 3;
+    public static final int EVENT_LONG_PRESS           = 4;
+    public static final int EVENT_SINGLE_TAP_UP        = 5;
+    public static final int EVENT_SINGLE_TAP_CONFIRMED = 6;
+    public static final int EVENT_DOUBLE_TAP           = 7;
+    public static final int EVENT_DOUBLE_TAP_EVENT     = 8;
+    public static final int EVENT_SCROLL               = 9;
+    public static final int EVENT_FLING                = 10;
+    public static final int EVENT_SCALE_BEGIN          = 11;
+    public static final int EVENT_SCALE                = 12;
+    public static final int EVENT_SCALE_END            = 13;
+    public static final int EVENT_CLIP_START           = 14;
+    public static final int EVENT_CLIP_CHANGING        = 15;
+    public static final int EVENT_CLIP_STOP            = 16;
+    public static final int EVENT_DECODE_START         = 17;
+    public static final int EVENT_DECODE_PREVIEW       = 18;
+    public static final int EVENT_DECODE_FINISH        = 19;
+    public static final int EVENT_TRIM_MEMORY          = 20;
+    public static final int EVENT_DROP_IMAGE           = 21;
+    public static final int EVENT_FLING_END            = 22;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final String[] EVENT_NAMES = {
+            "frame", "down", "up", "showPress", "longPress", "singleTapUp", "singleTapConfirmed",
+            "doubleTap", "doubleTapEvent", "scroll", "fling", "scaleBegin", "scale", "scaleEnd",
+            "clipStart", "clipChanging", "clipStop", "decodeStart", "decodePreview", "decodeFinish",
+            "trimMemory", "dropImage", "flingEnd"
+    };
+
+    private final long[]     mTimes;
+    private final int[]      mEvents;
+    private final float[]    mFirstValues;
+    private final float[]    mSecondValues;
+    private final int        mMask;
+    private long             mCount     = 0;
+    private volatile boolean mIsEnabled = true;
+
+    public Tracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity events kept, rounded up to a power of two
+     */
+    public Tracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mTimes        = new long[size];
+        mEvents       = new int[size];
+        mFirstValues  = new float[size];
+        mSecondValues = new float[size];
+        mMask         = size - 1;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mIsEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mIsEnabled;
+    }
+
+    public void trace(int event) {
+        trace(event, 0, 0);
+    }
+
+    /**
+     * Record an event over the oldest one
+     * @param event one of EVENT_*
+     * @param first  first value of the event, such as a width or a distance x
+     * @param second second value of the event
+     */
+    public void trace(int event, float first, float second) {
+        if (!mIsEnabled) {
+            return;
+        }
+
+        synchronized (this) {
+            int index = (int) (mCount & mMask);
+            mTimes[index]        = System.nanoTime();
+            mEvents[index]       = event;
+            mFirstValues[index]  = first;
+            mSecondValues[index] = second;
+            mCount++;
+        }
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * The recorded events from the oldest one, with their times in milliseconds
+     * before the newest one
+     */
+    public synchronized String dump() {
+        int           size    = (int) Math.min(mCount, mMask + 1);
+        long          newest  = size > 0 ? mTimes[(int) ((mCount - 1) & mMask)] : 0;
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Tracer: %d events, %d kept\n", mCount, size));
+        for (long sequence = mCount - size; sequence < mCount; sequence++) {
+            int index = (int) (sequence & mMask);
+            builder.append(String.format("  -%9.3fms %-18s (%s, %s)\n",
+                    (newest - mTimes[index]) / 1000000f, EVENT_NAMES[mEvents[index]],
+                    mFirstValues[index], mSecondValues[index]));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+}
@@ -0,0 +1,175 @@
+package com.cocoonshu.cobox.graphic;
+
+import android.graphics.Matrix;
+
+/**
+ * Similarity transform kept as its scale, rotation and translation, such as
+ * the pose of an image on the display. It is read from and written to a Matrix
+ * in one call, and interpolated by its components, so an animated rotation
+ * stays a rotation instead of skewing through the interpolated corners.
+ * @author Cocoonshu
+ * @date 2016-12-02 11:20:37
+ */
+public class Pose {
+
+    public  static final float EqualError    = 1E-3F;
+    public  static final float ScaleError    = 1E-3F;
+    public  static final float RotateError   = 1E-4F;
+    public  static final float ForwardFactor = 2E-1F;
+    private static final float PI            = (float) Math.PI;
+    private static final float TwoPI         = (float) (Math.PI * 2);
+
+    private float   mScale      = 1f;
+    private float   mRotate     = 0f;
+    private float   mTranslateX = 0f;
+    private float   mTranslateY = 0f;
+    private float[] mValues     = new float[9];
+
+    public Pose() {
+        reset();
+    }
+
+    public void reset() {
+        mScale      = 1f;
+        mRotate     = 0f;
+        mTranslateX = 0f;
+        mTranslateY = 0f;
+    }
+
+    public final void set(Pose src) {
+        mScale      = src.mScale;
+        mRotate     = src.mRotate;
+        mTranslateX = src.mTranslateX;
+        mTranslateY = src.mTranslateY;
+    }
+
+    /**
+     * Read the pose of a matrix made of scales, rotations and translations only
+     */
+    public final void set(Matrix matrix) {
+        matrix.getValues(mValues);
+        float cosScale = mValues[Matrix.MSCALE_X];
+        float sinScale = mValues[Matrix.MSKEW_Y];
+        mScale      = (float) Math.sqrt(cosScale * cosScale + sinScale * sinScale);
+        mRotate     = (float) Math.atan2(sinScale, cosScale);
+        mTranslateX = mValues[Matrix.MTRANS_X];
+        mTranslateY = mValues[Matrix.MTRANS_Y];
+    }
+
+    /**
+     * Write the pose into the matrix, replacing its values
+     */
+    public final void toMatrix(Matrix matrix) {
+        float cosScale = mScale * (float) Math.cos(mRotate);
+        float sinScale = mScale * (float) Math.sin(mRotate);
+        mValues[Matrix.MSCALE_X] = cosScale;
+        mValues[Matrix.MSKEW_X]  = -sinScale;
+        mValues[Matrix.MTRANS_X] = mTranslateX;
+        mValues[Matrix.MSKEW_Y]  = sinScale;
+        mValues[Matrix.MSCALE_Y] = cosScale;
+        mValues[Matrix.MTRANS_Y] = mTranslateY;
+        mValues[Matrix.MPERSP_0] = 0f;
+        mValues[Matrix.MPERSP_1] = 0f;
+        mValues[Matrix.MPERSP_2] = 1f;
+        matrix.setValues(mValues);
+    }
+
+    public final float getScale() {
+        return mScale;
+    }
+
+    public final float getTranslateX() {
+        return mTranslateX;
+    }
+
+    public final float getTranslateY() {
+        return mTranslateY;
+    }
+
+    /**
+     * @return radians in [-PI, PI]
+     */
+    public final float getRotate() {
+        return mRotate;
+    }
+
+    public final float getDegree() {
+        return (float) Math.toDegrees(mRotate);
+    }
+
+    public final boolean forward(Pose dest) {
+        return forward(dest, ForwardFactor);
+    }
+
+    /**
+     * Move every component towards the destination by a part of the remaining
+     * distance, the rotation along the shorter way. The destination is taken
+     * as it is once every component is within its error.
+     * @param factor part of the distance to go, see FrameStepper for a time based one
+     * @return true if the destination is not reached yet
+     */
+    public final boolean forward(Pose dest, float factor) {
+        if (dest == null) {
+            return false;
+        }
+
+        mScale      += (dest.mScale - mScale) * factor;
+        mRotate      = normalizeRotate(mRotate + getRotateDistance(mRotate, dest.mRotate) * factor);
+        mTranslateX += (dest.mTranslateX - mTranslateX) * factor;
+        mTranslateY += (dest.mTranslateY - mTranslateY) * factor;
+        if (equals(dest)) {
+            set(dest);
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isValid() {
+        return !Float.isNaN(mScale) && !Float.isInfinite(mScale)
+                && !Float.isNaN(mRotate) && !Float.isInfinite(mRotate)
+                && !Float.isNaN(mTranslateX) && !Float.isInfinite(mTranslateX)
+                && !Float.isNaN(mTranslateY) && !Float.isInfinite(mTranslateY);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Pose) {
+            Pose other = (Pose) obj;
+            return Math.abs(mScale - other.mScale) < ScaleError
+                    && Math.abs(getRotateDistance(mRotate, other.mRotate)) < RotateError
+                    && Math.abs(mTranslateX - other.mTranslateX) < EqualError
+                    && Math.abs(mTranslateY - other.mTranslateY) < EqualError;
+        } else {
+            return super.equals(obj);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        // Equality is approximate, poses are never hashed
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Pose[scale=" + mScale + ", degree=" + getDegree()
+                + ", translate=(" + mTranslateX + ", " + mTranslateY + ")]";
+    }
+
+    /**
+     * Signed angle from one rotation to another in [-PI, PI]
+     */
+    private static float getRotateDistance(float from, float to) {
+        return normalizeRotate(to - from);
+    }
+
+    private static float normalizeRotate(float radians) {
+        radians %= TwoPI;
+        if (radians > PI) {
+            radians -= TwoPI;
+        } else if (radians < -PI) {
+            radians += TwoPI;
+        }
+        return radians;
+    }
+}
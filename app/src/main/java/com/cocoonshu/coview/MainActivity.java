@@ -6,6 +6,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
@@ -21,6 +22,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 
 import com.cocoonshu.cobox.gestureimageview.GestureImageView;
+import com.cocoonshu.cobox.gestureimageview.ImageLoader;
 import com.cocoonshu.cobox.gestureimageview.R;
 
 public class MainActivity extends AppCompatActivity {
@@ -67,6 +69,10 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onClick(View view) {
+                if (!(mImgPicture.getImage() instanceof BitmapDrawable)) {
+                    // Tiled images have no single bitmap to clip
+                    return;
+                }
                 if (mClipTask != null) {
                     mClipTask.cancel(true);
                 }
@@ -201,6 +207,8 @@ public class MainActivity extends AppCompatActivity {
         }
 
         public void start() {
+            // The source must not go back to the pool while clipping
+            ImageLoader.retainBitmap(mSrcBitmap);
             this.execute(mSrcBitmap);
         }
 
@@ -212,16 +220,46 @@ public class MainActivity extends AppCompatActivity {
             if (mSrcBitmap == null || mClipRect.isEmpty()) {
                 return null;
             } else {
-                return Bitmap.createBitmap(mSrcBitmap,
+                // Same as Bitmap.createBitmap, but draws into a pooled bitmap
+                Rect  srcRect = new Rect(
                         (int) mClipRect.left, (int) mClipRect.top,
-                        (int) mClipRect.width(), (int) mClipRect.height(),
-                        mTransform, true);
+                        (int) mClipRect.left + (int) mClipRect.width(),
+                        (int) mClipRect.top + (int) mClipRect.height());
+                RectF dstRect = new RectF(0, 0, srcRect.width(), srcRect.height());
+                RectF outRect = new RectF();
+                mTransform.mapRect(outRect, dstRect);
+
+                // A rotated clip leaves transparent corners, which an opaque config such as RGB_565 can't hold
+                boolean       isTransformed = !mTransform.rectStaysRect();
+                Bitmap.Config config        = isTransformed || mSrcBitmap.getConfig() == null
+                        ? Bitmap.Config.ARGB_8888 : mSrcBitmap.getConfig();
+                Bitmap        clipped       = ImageLoader.obtainBitmap(
+                        Math.round(outRect.width()), Math.round(outRect.height()), config);
+                Canvas        canvas        = new Canvas(clipped);
+                Paint         paint         = new Paint(Paint.FILTER_BITMAP_FLAG);
+                clipped.setDensity(mSrcBitmap.getDensity());
+                if (isTransformed) {
+                    clipped.setHasAlpha(true);
+                    paint.setAntiAlias(true);
+                }
+                canvas.translate(-outRect.left, -outRect.top);
+                canvas.concat(mTransform);
+                canvas.drawBitmap(mSrcBitmap, srcRect, dstRect, paint);
+                return clipped;
             }
         }
 
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            super.onCancelled(bitmap);
+            ImageLoader.releaseBitmap(mSrcBitmap);
+            ImageLoader.releaseBitmap(bitmap);
+        }
+
         @Override
         protected void onPostExecute(Bitmap bitmap) {
             super.onPostExecute(bitmap);
+            ImageLoader.releaseBitmap(mSrcBitmap);
             if (mListener != null && !isCancelled()) {
                 if (bitmap != null) {
                     mListener.onSuccessed(bitmap);
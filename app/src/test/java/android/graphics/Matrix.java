@@ -0,0 +1,330 @@
+package android.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Java Matrix for the JVM tests, ahead of the unit test android.jar on the
+ * test classpath, where the framework one only throws. It follows the Skia
+ * math of the device for the affine calls the app makes, and allocates
+ * nothing per call as the native one doesn't.
+ * @author Cocoonshu
+ * @date 2016-12-07 10:02:36
+ */
+public class Matrix {
+
+    public static final int MSCALE_X = 0;
+    public static final int MSKEW_X  = 1;
+    public static final int MTRANS_X = 2;
+    public static final int MSKEW_Y  = 3;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+    public static final int MPERSP_0 = 6;
+    public static final int MPERSP_1 = 7;
+    public static final int MPERSP_2 = 8;
+
+    // SK_ScalarNearlyZero, under which Skia snaps a sine or a cosine to 0
+    private static final float NEARLY_ZERO = 1f / (1 << 12);
+
+    private final float[] mValues  = new float[9];
+    private final float[] mOperand = new float[9];
+    private final float[] mProduct = new float[9];
+
+    public Matrix() {
+        reset();
+    }
+
+    public Matrix(Matrix src) {
+        set(src);
+    }
+
+    public boolean isIdentity() {
+        return mValues[MSCALE_X] == 1 && mValues[MSKEW_X] == 0 && mValues[MTRANS_X] == 0
+                && mValues[MSKEW_Y] == 0 && mValues[MSCALE_Y] == 1 && mValues[MTRANS_Y] == 0
+                && isAffine();
+    }
+
+    public boolean isAffine() {
+        return mValues[MPERSP_0] == 0 && mValues[MPERSP_1] == 0 && mValues[MPERSP_2] == 1;
+    }
+
+    public boolean rectStaysRect() {
+        if (!isAffine()) {
+            return false;
+        }
+        boolean isScaling  = mValues[MSKEW_X] == 0 && mValues[MSKEW_Y] == 0
+                && mValues[MSCALE_X] != 0 && mValues[MSCALE_Y] != 0;
+        boolean isRotating = mValues[MSCALE_X] == 0 && mValues[MSCALE_Y] == 0
+                && mValues[MSKEW_X] != 0 && mValues[MSKEW_Y] != 0;
+        return isScaling || isRotating;
+    }
+
+    public void set(Matrix src) {
+        if (src == null) {
+            reset();
+        } else {
+            System.arraycopy(src.mValues, 0, mValues, 0, mValues.length);
+        }
+    }
+
+    public void reset() {
+        setIdentity(mValues);
+    }
+
+    public void setTranslate(float dx, float dy) {
+        setTranslate(mValues, dx, dy);
+    }
+
+    public void setScale(float sx, float sy) {
+        setScale(mValues, sx, sy, 0, 0);
+    }
+
+    public void setScale(float sx, float sy, float px, float py) {
+        setScale(mValues, sx, sy, px, py);
+    }
+
+    public void setRotate(float degrees) {
+        setRotate(mValues, degrees, 0, 0);
+    }
+
+    public void setRotate(float degrees, float px, float py) {
+        setRotate(mValues, degrees, px, py);
+    }
+
+    public boolean setConcat(Matrix a, Matrix b) {
+        multiply(a.mValues, b.mValues);
+        return true;
+    }
+
+    public boolean preTranslate(float dx, float dy) {
+        setTranslate(mOperand, dx, dy);
+        multiply(mValues, mOperand);
+        return true;
+    }
+
+    public boolean preScale(float sx, float sy) {
+        setScale(mOperand, sx, sy, 0, 0);
+        multiply(mValues, mOperand);
+        return true;
+    }
+
+    public boolean preScale(float sx, float sy, float px, float py) {
+        setScale(mOperand, sx, sy, px, py);
+        multiply(mValues, mOperand);
+        return true;
+    }
+
+    public boolean preRotate(float degrees) {
+        setRotate(mOperand, degrees, 0, 0);
+        multiply(mValues, mOperand);
+        return true;
+    }
+
+    public boolean preRotate(float degrees, float px, float py) {
+        setRotate(mOperand, degrees, px, py);
+        multiply(mValues, mOperand);
+        return true;
+    }
+
+    public boolean preConcat(Matrix other) {
+        multiply(mValues, other.mValues);
+        return true;
+    }
+
+    public boolean postTranslate(float dx, float dy) {
+        setTranslate(mOperand, dx, dy);
+        multiply(mOperand, mValues);
+        return true;
+    }
+
+    public boolean postScale(float sx, float sy) {
+        setScale(mOperand, sx, sy, 0, 0);
+        multiply(mOperand, mValues);
+        return true;
+    }
+
+    public boolean postScale(float sx, float sy, float px, float py) {
+        setScale(mOperand, sx, sy, px, py);
+        multiply(mOperand, mValues);
+        return true;
+    }
+
+    public boolean postRotate(float degrees) {
+        setRotate(mOperand, degrees, 0, 0);
+        multiply(mOperand, mValues);
+        return true;
+    }
+
+    public boolean postRotate(float degrees, float px, float py) {
+        setRotate(mOperand, degrees, px, py);
+        multiply(mOperand, mValues);
+        return true;
+    }
+
+    public boolean postConcat(Matrix other) {
+        multiply(other.mValues, mValues);
+        return true;
+    }
+
+    public boolean invert(Matrix inverse) {
+        float[] m    = mValues;
+        float   det  = m[0] * (m[4] * m[8] - m[5] * m[7])
+                     - m[1] * (m[3] * m[8] - m[5] * m[6])
+                     + m[2] * (m[3] * m[7] - m[4] * m[6]);
+        if (Math.abs(det) < NEARLY_ZERO * NEARLY_ZERO * NEARLY_ZERO) {
+            return false;
+        }
+
+        float[] r = mProduct;
+        r[0] = (m[4] * m[8] - m[5] * m[7]) / det;
+        r[1] = (m[2] * m[7] - m[1] * m[8]) / det;
+        r[2] = (m[1] * m[5] - m[2] * m[4]) / det;
+        r[3] = (m[5] * m[6] - m[3] * m[8]) / det;
+        r[4] = (m[0] * m[8] - m[2] * m[6]) / det;
+        r[5] = (m[2] * m[3] - m[0] * m[5]) / det;
+        r[6] = (m[3] * m[7] - m[4] * m[6]) / det;
+        r[7] = (m[1] * m[6] - m[0] * m[7]) / det;
+        r[8] = (m[0] * m[4] - m[1] * m[3]) / det;
+        if (inverse != null) {
+            System.arraycopy(r, 0, inverse.mValues, 0, r.length);
+        }
+        return true;
+    }
+
+    public void mapPoints(float[] pts) {
+        mapPoints(pts, 0, pts, 0, pts.length >> 1);
+    }
+
+    public void mapPoints(float[] dst, float[] src) {
+        mapPoints(dst, 0, src, 0, src.length >> 1);
+    }
+
+    public void mapPoints(float[] dst, int dstIndex, float[] src, int srcIndex, int pointCount) {
+        float[] m = mValues;
+        for (int i = 0; i < pointCount; i++) {
+            float x = src[srcIndex + i * 2];
+            float y = src[srcIndex + i * 2 + 1];
+            float w = m[MPERSP_0] * x + m[MPERSP_1] * y + m[MPERSP_2];
+            w = w == 0 ? 1 : 1 / w;
+            dst[dstIndex + i * 2]     = (m[MSCALE_X] * x + m[MSKEW_X] * y + m[MTRANS_X]) * w;
+            dst[dstIndex + i * 2 + 1] = (m[MSKEW_Y] * x + m[MSCALE_Y] * y + m[MTRANS_Y]) * w;
+        }
+    }
+
+    public void mapVectors(float[] vecs) {
+        mapVectors(vecs, 0, vecs, 0, vecs.length >> 1);
+    }
+
+    public void mapVectors(float[] dst, float[] src) {
+        mapVectors(dst, 0, src, 0, src.length >> 1);
+    }
+
+    public void mapVectors(float[] dst, int dstIndex, float[] src, int srcIndex, int vectorCount) {
+        float[] m = mValues;
+        for (int i = 0; i < vectorCount; i++) {
+            float x = src[srcIndex + i * 2];
+            float y = src[srcIndex + i * 2 + 1];
+            dst[dstIndex + i * 2]     = m[MSCALE_X] * x + m[MSKEW_X] * y;
+            dst[dstIndex + i * 2 + 1] = m[MSKEW_Y] * x + m[MSCALE_Y] * y;
+        }
+    }
+
+    public boolean mapRect(RectF rect) {
+        return mapRect(rect, rect);
+    }
+
+    public boolean mapRect(RectF dst, RectF src) {
+        float[] corners = mProduct;
+        corners[0] = src.left;  corners[1] = src.top;
+        corners[2] = src.right; corners[3] = src.top;
+        corners[4] = src.left;  corners[5] = src.bottom;
+        corners[6] = src.right; corners[7] = src.bottom;
+        mapPoints(corners, 0, corners, 0, 4);
+        dst.set(Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6])),
+                Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7])),
+                Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6])),
+                Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7])));
+        return rectStaysRect();
+    }
+
+    public float mapRadius(float radius) {
+        float[] m  = mValues;
+        float   d0 = (float) Math.hypot(m[MSCALE_X] * radius, m[MSKEW_Y] * radius);
+        float   d1 = (float) Math.hypot(m[MSKEW_X] * radius, m[MSCALE_Y] * radius);
+        return (float) Math.sqrt(d0 * d1);
+    }
+
+    public void getValues(float[] values) {
+        System.arraycopy(mValues, 0, values, 0, mValues.length);
+    }
+
+    public void setValues(float[] values) {
+        System.arraycopy(values, 0, mValues, 0, mValues.length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Matrix && Arrays.equals(mValues, ((Matrix) obj).mValues);
+    }
+
+    @Override
+    public int hashCode() {
+        // The framework Matrix hashes to a constant as well
+        return 44;
+    }
+
+    @Override
+    public String toString() {
+        return "Matrix{[" + mValues[0] + ", " + mValues[1] + ", " + mValues[2] + "]["
+                + mValues[3] + ", " + mValues[4] + ", " + mValues[5] + "]["
+                + mValues[6] + ", " + mValues[7] + ", " + mValues[8] + "]}";
+    }
+
+    /**
+     * mValues = a * b, either of them may be mValues
+     */
+    private void multiply(float[] a, float[] b) {
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                mProduct[row * 3 + column] = a[row * 3] * b[column]
+                        + a[row * 3 + 1] * b[3 + column]
+                        + a[row * 3 + 2] * b[6 + column];
+            }
+        }
+        System.arraycopy(mProduct, 0, mValues, 0, mValues.length);
+    }
+
+    private static void setIdentity(float[] m) {
+        m[MSCALE_X] = 1; m[MSKEW_X]  = 0; m[MTRANS_X] = 0;
+        m[MSKEW_Y]  = 0; m[MSCALE_Y] = 1; m[MTRANS_Y] = 0;
+        m[MPERSP_0] = 0; m[MPERSP_1] = 0; m[MPERSP_2] = 1;
+    }
+
+    private static void setTranslate(float[] m, float dx, float dy) {
+        setIdentity(m);
+        m[MTRANS_X] = dx;
+        m[MTRANS_Y] = dy;
+    }
+
+    private static void setScale(float[] m, float sx, float sy, float px, float py) {
+        setIdentity(m);
+        m[MSCALE_X] = sx;
+        m[MTRANS_X] = px - sx * px;
+        m[MSCALE_Y] = sy;
+        m[MTRANS_Y] = py - sy * py;
+    }
+
+    private static void setRotate(float[] m, float degrees, float px, float py) {
+        double radians = Math.toRadians(degrees);
+        float  sin     = (float) Math.sin(radians);
+        float  cos     = (float) Math.cos(radians);
+        sin = Math.abs(sin) <= NEARLY_ZERO ? 0 : sin;
+        cos = Math.abs(cos) <= NEARLY_ZERO ? 0 : cos;
+        setIdentity(m);
+        m[MSCALE_X] = cos;
+        m[MSKEW_X]  = -sin;
+        m[MTRANS_X] = sin * py + (1 - cos) * px;
+        m[MSKEW_Y]  = sin;
+        m[MSCALE_Y] = cos;
+        m[MTRANS_Y] = -sin * px + (1 - cos) * py;
+    }
+}
@@ -0,0 +1,219 @@
+package android.graphics;
+
+/**
+ * Java RectF for the JVM tests, ahead of the unit test android.jar on the
+ * test classpath, where the framework one only throws. Same rules as the
+ * framework one: empty when left >= right or top >= bottom.
+ * @author Cocoonshu
+ * @date 2016-12-07 10:02:36
+ */
+public class RectF {
+
+    public float left;
+    public float top;
+    public float right;
+    public float bottom;
+
+    public RectF() {
+    }
+
+    public RectF(float left, float top, float right, float bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public RectF(RectF rect) {
+        if (rect != null) {
+            set(rect);
+        }
+    }
+
+    public RectF(Rect rect) {
+        if (rect != null) {
+            set(rect);
+        }
+    }
+
+    public final boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    public final float width() {
+        return right - left;
+    }
+
+    public final float height() {
+        return bottom - top;
+    }
+
+    public final float centerX() {
+        return (left + right) * 0.5f;
+    }
+
+    public final float centerY() {
+        return (top + bottom) * 0.5f;
+    }
+
+    public void setEmpty() {
+        left = right = top = bottom = 0;
+    }
+
+    public void set(float left, float top, float right, float bottom) {
+        this.left   = left;
+        this.top    = top;
+        this.right  = right;
+        this.bottom = bottom;
+    }
+
+    public void set(RectF src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public void set(Rect src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public void offset(float dx, float dy) {
+        left   += dx;
+        top    += dy;
+        right  += dx;
+        bottom += dy;
+    }
+
+    public void offsetTo(float newLeft, float newTop) {
+        right  += newLeft - left;
+        bottom += newTop - top;
+        left    = newLeft;
+        top     = newTop;
+    }
+
+    public void inset(float dx, float dy) {
+        left   += dx;
+        top    += dy;
+        right  -= dx;
+        bottom -= dy;
+    }
+
+    public boolean contains(float x, float y) {
+        return left < right && top < bottom
+                && x >= left && x < right && y >= top && y < bottom;
+    }
+
+    public boolean contains(float left, float top, float right, float bottom) {
+        return this.left < this.right && this.top < this.bottom
+                && this.left <= left && this.top <= top
+                && this.right >= right && this.bottom >= bottom;
+    }
+
+    public boolean contains(RectF rect) {
+        return contains(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    public boolean intersect(float left, float top, float right, float bottom) {
+        if (this.left < right && left < this.right && this.top < bottom && top < this.bottom) {
+            this.left   = Math.max(this.left, left);
+            this.top    = Math.max(this.top, top);
+            this.right  = Math.min(this.right, right);
+            this.bottom = Math.min(this.bottom, bottom);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean intersect(RectF rect) {
+        return intersect(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    public boolean setIntersect(RectF a, RectF b) {
+        if (a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom) {
+            set(Math.max(a.left, b.left), Math.max(a.top, b.top),
+                    Math.min(a.right, b.right), Math.min(a.bottom, b.bottom));
+            return true;
+        }
+        return false;
+    }
+
+    public boolean intersects(float left, float top, float right, float bottom) {
+        return this.left < right && left < this.right && this.top < bottom && top < this.bottom;
+    }
+
+    public static boolean intersects(RectF a, RectF b) {
+        return a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom;
+    }
+
+    public void union(float left, float top, float right, float bottom) {
+        if (left < right && top < bottom) {
+            if (this.left < this.right && this.top < this.bottom) {
+                this.left   = Math.min(this.left, left);
+                this.top    = Math.min(this.top, top);
+                this.right  = Math.max(this.right, right);
+                this.bottom = Math.max(this.bottom, bottom);
+            } else {
+                set(left, top, right, bottom);
+            }
+        }
+    }
+
+    public void union(RectF rect) {
+        union(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    public void union(float x, float y) {
+        left   = Math.min(left, x);
+        top    = Math.min(top, y);
+        right  = Math.max(right, x);
+        bottom = Math.max(bottom, y);
+    }
+
+    public void sort() {
+        if (left > right) {
+            float swap = left;
+            left  = right;
+            right = swap;
+        }
+        if (top > bottom) {
+            float swap = top;
+            top    = bottom;
+            bottom = swap;
+        }
+    }
+
+    public void round(Rect dst) {
+        dst.left   = Math.round(left);
+        dst.top    = Math.round(top);
+        dst.right  = Math.round(right);
+        dst.bottom = Math.round(bottom);
+    }
+
+    public void roundOut(Rect dst) {
+        dst.left   = (int) Math.floor(left);
+        dst.top    = (int) Math.floor(top);
+        dst.right  = (int) Math.ceil(right);
+        dst.bottom = (int) Math.ceil(bottom);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        RectF rect = (RectF) obj;
+        return left == rect.left && top == rect.top && right == rect.right && bottom == rect.bottom;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = left != +0.0f ? Float.floatToIntBits(left) : 0;
+        result = 31 * result + (top != +0.0f ? Float.floatToIntBits(top) : 0);
+        result = 31 * result + (right != +0.0f ? Float.floatToIntBits(right) : 0);
+        result = 31 * result + (bottom != +0.0f ? Float.floatToIntBits(bottom) : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RectF(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,169 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import com.cocoonshu.cobox.utils.ImageUtils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM test of the decode planner, and of its decoded sizes against the
+ * adviseSamplaSize / adviseImageScale path it replaced
+ * @Author Cocoonshu
+ * @Date   2016-12-05 10:36:12
+ */
+public class DecodePlanTest {
+
+    private static final int[][] IMAGE_SIZES  = {
+            {4000, 3000}, {3000, 4000}, {4032, 3024}, {1920, 1080}, {12000, 800},
+            {800, 12000}, {1440, 2560}, {1001, 999}, {640, 480}, {120, 90}
+    };
+    private static final int[][] TARGET_SIZES = {
+            {1080, 1920}, {1920, 1080}, {720, 1280}, {480, 480}, {1440, 2560}
+    };
+
+    @Test
+    public void picksTheLargestPowerOfTwoKeepingTheTargetSize() {
+        DecodePlan plan = DecodePlan.compute(4000, 3000, 1000, 750, 1f, 0);
+        assertEquals(4, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+        assertEquals(1000, plan.getWidth());
+        assertEquals(750, plan.getHeight());
+
+        plan = DecodePlan.compute(4000, 3000, 999, 749, 1f, 0);
+        assertEquals(4, plan.getSampleSize());
+
+        plan = DecodePlan.compute(4000, 3000, 1001, 751, 1f, 0);
+        assertEquals(2, plan.getSampleSize());
+    }
+
+    @Test
+    public void keepsASampledImageCloseEnoughToTheTarget() {
+        // 1000px sampled for 900px wanted, a residual scale of exactly RESCALE_THRESHOLD
+        DecodePlan plan = DecodePlan.compute(4000, 3000, 900, 675, 1f, 0);
+        assertEquals(4, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+        assertEquals(1000, plan.getWidth());
+        assertEquals(750, plan.getHeight());
+    }
+
+    @Test
+    public void scalesASampledImageTooFarFromTheTarget() {
+        // 1000px sampled for 800px wanted, scaled by the decoder through 1000 -> 800 densities
+        DecodePlan plan = DecodePlan.compute(4000, 3000, 800, 600, 1f, 0);
+        assertEquals(4, plan.getSampleSize());
+        assertTrue(plan.isScaled());
+        assertEquals(1000, plan.getDensity());
+        assertEquals(800, plan.getTargetDensity());
+        assertEquals(800, plan.getWidth());
+        assertEquals(600, plan.getHeight());
+    }
+
+    @Test
+    public void neverExceedsMaxPixels() {
+        DecodePlan plan = DecodePlan.compute(4000, 3000, 4000, 3000, 1f, 1000000);
+        assertEquals(2, plan.getSampleSize());
+        assertTrue(plan.isScaled());
+        assertTrue((long) plan.getWidth() * plan.getHeight() <= 1000000);
+
+        for (int[] image : IMAGE_SIZES) {
+            for (long maxPixels : new long[] {1, 1000, 250000, 1000000, 4000000}) {
+                plan = DecodePlan.compute(image[0], image[1], 0, 0, 1f, maxPixels);
+                assertTrue(plan + " for " + maxPixels, (long) plan.getWidth() * plan.getHeight() <= Math.max(1, maxPixels));
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheMaxZoomSharp() {
+        DecodePlan plan = DecodePlan.compute(4000, 3000, 1000, 750, 2f, 0);
+        assertEquals(2, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+        assertEquals(2000, plan.getWidth());
+        assertEquals(1500, plan.getHeight());
+
+        // A zoom out factor doesn't shrink the image under the target size
+        assertEquals(4, DecodePlan.compute(4000, 3000, 1000, 750, 0.5f, 0).getSampleSize());
+        // and a zoom in factor never scales the image over its own size
+        plan = DecodePlan.compute(4000, 3000, 1000, 750, 8f, 0);
+        assertEquals(1, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+        assertEquals(4000, plan.getWidth());
+    }
+
+    @Test
+    public void neverScalesASmallImage() {
+        DecodePlan plan = DecodePlan.compute(120, 90, 1080, 1920, 2f, 0);
+        assertEquals(1, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+        assertEquals(120, plan.getWidth());
+        assertEquals(90, plan.getHeight());
+
+        plan = DecodePlan.compute(120, 90, 0, 0, 1f, 0);
+        assertEquals(1, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+    }
+
+    @Test
+    public void ignoresAnUnknownTarget() {
+        DecodePlan plan = DecodePlan.compute(4000, 3000, -1, 0, 1f, 0);
+        assertEquals(1, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+
+        plan = DecodePlan.compute(4000, 3000, -1, 0, 1f, 1000000);
+        assertEquals(2, plan.getSampleSize());
+    }
+
+    @Test
+    public void keepsUnknownBoundsAsTheyAre() {
+        DecodePlan plan = DecodePlan.compute(0, -1, 1080, 1920, 1f, 0);
+        assertEquals(1, plan.getSampleSize());
+        assertFalse(plan.isScaled());
+    }
+
+    /**
+     * The replaced path sampled by adviseSamplaSize, which BitmapFactory rounds down
+     * to a power of two, then allocated a second bitmap scaled by adviseImageScale.
+     * The plan must never allocate more, nor decode under the size fitted in the target.
+     */
+    @Test
+    public void allocatesNoMoreThanTheAdvisedSampleAndScale() {
+        long plannedPixels = 0;
+        long advisedPixels = 0;
+        for (int[] image : IMAGE_SIZES) {
+            for (int[] target : TARGET_SIZES) {
+                int        imageWidth  = image[0];
+                int        imageHeight = image[1];
+                DecodePlan plan        = DecodePlan.compute(imageWidth, imageHeight, target[0], target[1], 1f, 0);
+                long       planPixels  = (long) plan.getWidth() * plan.getHeight();
+                long       peakPixels  = computeAdvisedPeakPixels(imageWidth, imageHeight, target[0], target[1]);
+                assertTrue(plan + " against " + peakPixels + " advised pixels", planPixels <= peakPixels);
+
+                float fitScale = Math.min(1f, Math.min((float) target[0] / imageWidth, (float) target[1] / imageHeight));
+                assertTrue(plan + " under the fitted width", plan.getWidth() >= (int) (imageWidth * fitScale) - 1);
+                assertTrue(plan + " under the fitted height", plan.getHeight() >= (int) (imageHeight * fitScale) - 1);
+
+                plannedPixels += planPixels;
+                advisedPixels += peakPixels;
+            }
+        }
+        // Over all the sizes, the plan allocates about a tenth of the advised path
+        assertTrue(plannedPixels + " planned against " + advisedPixels + " advised pixels",
+                plannedPixels < advisedPixels * 0.15);
+    }
+
+    private static long computeAdvisedPeakPixels(int imageWidth, int imageHeight, int targetWidth, int targetHeight) {
+        int   sampleSize    = Integer.highestOneBit(ImageUtils.adviseSamplaSize(imageWidth, imageHeight, targetWidth, targetHeight));
+        int   sampledWidth  = (imageWidth + sampleSize - 1) / sampleSize;
+        int   sampledHeight = (imageHeight + sampleSize - 1) / sampleSize;
+        float scale         = ImageUtils.adviseImageScale(sampledWidth, sampledHeight, targetWidth, targetHeight);
+        int   scaledWidth   = (int) (sampledWidth * scale);
+        int   scaledHeight  = (int) (sampledHeight * scale);
+        long  sampledPixels = (long) sampledWidth * sampledHeight;
+        boolean isScaled    = (scaledWidth != sampledWidth || scaledHeight != sampledHeight)
+                && (scaledWidth > targetWidth || scaledHeight > targetHeight);
+        return isScaled ? sampledPixels + (long) scaledWidth * scaledHeight : sampledPixels;
+    }
+}
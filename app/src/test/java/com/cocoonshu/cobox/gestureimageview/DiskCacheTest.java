@@ -0,0 +1,227 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM test of the disk cache journal, its partial entries and its recovery
+ * from a journal torn by process death
+ * @Author Cocoonshu
+ * @Date   2016-12-05 14:12:40
+ */
+public class DiskCacheTest {
+
+    private static final long   MAX_SIZE = 1024;
+    private static final String KEY_A    = DiskCache.hashKey("http://example.com/a.jpg");
+    private static final String KEY_B    = DiskCache.hashKey("http://example.com/b.jpg");
+    private static final String KEY_C    = DiskCache.hashKey("http://example.com/c.jpg");
+    private static final String KEY_D    = DiskCache.hashKey("http://example.com/d.jpg");
+    private static final String KEY_E    = DiskCache.hashKey("http://example.com/e.jpg");
+    private static final String KEY_P    = DiskCache.hashKey("http://example.com/p.jpg");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File      mDirectory = null;
+    private DiskCache mCache     = null;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.newFolder("cache");
+        mCache     = new DiskCache(mDirectory, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.close();
+    }
+
+    @Test
+    public void keepsEntriesMetadataAndOrderAcrossReopening() throws IOException {
+        DiskCache.Metadata metadata = new DiskCache.Metadata("\"v1\"", 1479720011000L, 1479723611000L);
+        put(KEY_A, 100, metadata);
+        put(KEY_B, 200, null);
+        put(KEY_C, 300, new DiskCache.Metadata(null, 1479720011000L, 0));
+        assertNotNull(mCache.get(KEY_A));
+
+        DiskCache reopened = reopen();
+        assertEquals(3, reopened.getCount());
+        assertEquals(600, reopened.getSize());
+        assertEquals("\"v1\"", reopened.getMetadata(KEY_A).getETag());
+        assertEquals(1479720011000L, reopened.getMetadata(KEY_A).getLastModified());
+        assertEquals(1479723611000L, reopened.getMetadata(KEY_A).getExpires());
+        assertNull(reopened.getMetadata(KEY_B));
+        assertNull(reopened.getMetadata(KEY_C).getETag());
+
+        // KEY_A was read last, so KEY_B is the eldest entry and evicted first
+        reopened.trimToSize(500);
+        assertNull(reopened.get(KEY_B));
+        assertNotNull(reopened.get(KEY_A));
+        assertNotNull(reopened.get(KEY_C));
+    }
+
+    @Test
+    public void forgetsRemovedAndEvictedEntries() throws IOException {
+        put(KEY_A, 600, null);
+        put(KEY_B, 600, null);
+        assertNull(mCache.get(KEY_A));
+        assertEquals(1, mCache.getEvictionCount());
+        assertTrue(mCache.remove(KEY_B));
+
+        DiskCache reopened = reopen();
+        assertEquals(0, reopened.getCount());
+        assertEquals(0, reopened.getSize());
+        assertFalse(new File(mDirectory, KEY_A).exists());
+        assertFalse(new File(mDirectory, KEY_B).exists());
+    }
+
+    @Test
+    public void dropsTornJournalLines() throws IOException {
+        put(KEY_A, 100, null);
+        put(KEY_B, 200, null);
+        mCache.close();
+
+        // A CLEAN line cut by process death, with the next action glued to it
+        File         journal = new File(mDirectory, DiskCache.JOURNAL_FILE);
+        OutputStream output  = new FileOutputStream(journal, true);
+        String       torn    = "CLEAN " + KEY_C + " 12READ " + KEY_A + "\nREMOVE\n"
+                + "CLEAN " + KEY_D + " x\nPARTIAL " + KEY_E + " \"v1\" x\n";
+        output.write(torn.getBytes("UTF-8"));
+        output.close();
+
+        mCache = new DiskCache(mDirectory, MAX_SIZE);
+        assertEquals(2, mCache.getCount());
+        assertEquals(300, mCache.getSize());
+        assertNotNull(mCache.get(KEY_A));
+        assertNotNull(mCache.get(KEY_B));
+        assertEquals(0, mCache.getPartialCount());
+    }
+
+    @Test
+    public void startsEmptyOverABrokenJournalHeader() throws IOException {
+        put(KEY_A, 100, null);
+        mCache.close();
+
+        OutputStream output = new FileOutputStream(new File(mDirectory, DiskCache.JOURNAL_FILE));
+        output.write("not a journal\n".getBytes("UTF-8"));
+        output.close();
+
+        mCache = new DiskCache(mDirectory, MAX_SIZE);
+        assertEquals(0, mCache.getCount());
+        assertFalse(new File(mDirectory, KEY_A).exists());
+    }
+
+    @Test
+    public void deletesFilesNeverCommitted() throws IOException {
+        File tempFile = mCache.newTempFile(KEY_A);
+        write(tempFile, 100);
+
+        DiskCache reopened = reopen();
+        assertEquals(0, reopened.getCount());
+        assertFalse(tempFile.exists());
+    }
+
+    @Test
+    public void keepsAPartialEntryWithAValidator() throws IOException {
+        DiskCache.Metadata metadata = new DiskCache.Metadata("\"v1\"", 0, 0);
+        File               partial  = mCache.editPartial(KEY_A);
+        assertNotNull(partial);
+        assertNull("only one writer edits a partial file", mCache.editPartial(KEY_A));
+        write(partial, 100);
+        mCache.endPartial(KEY_A, metadata);
+        assertEquals(1, mCache.getPartialCount());
+
+        DiskCache reopened = reopen();
+        assertEquals(1, reopened.getPartialCount());
+        assertEquals("\"v1\"", reopened.getPartialMetadata(KEY_A).getETag());
+        File resumed = reopened.editPartial(KEY_A);
+        assertEquals(100, resumed.length());
+
+        write(resumed, 150);
+        File entry = reopened.commitPartial(KEY_A, metadata);
+        assertEquals(150, entry.length());
+        assertEquals(0, reopened.getPartialCount());
+        assertFalse(resumed.exists());
+
+        reopened = reopen();
+        assertEquals(0, reopened.getPartialCount());
+        assertEquals(150, reopened.get(KEY_A).length());
+    }
+
+    @Test
+    public void discardsAPartialEntryWithoutAValidator() throws IOException {
+        File partial = mCache.editPartial(KEY_A);
+        write(partial, 100);
+        mCache.endPartial(KEY_A, new DiskCache.Metadata("\"v1\"", 0, 0));
+
+        partial = mCache.editPartial(KEY_A);
+        mCache.endPartial(KEY_A, new DiskCache.Metadata(null, 0, 0));
+        assertEquals(0, mCache.getPartialCount());
+        assertFalse(partial.exists());
+
+        DiskCache reopened = reopen();
+        assertEquals(0, reopened.getPartialCount());
+        assertNull(reopened.getPartialMetadata(KEY_A));
+    }
+
+    @Test
+    public void keepsOnlyTheLatestPartialEntries() throws IOException {
+        for (int i = 0; i <= DiskCache.MAX_PARTIAL_COUNT; i++) {
+            File partial = mCache.editPartial(KEY_P + i);
+            write(partial, 10);
+            mCache.endPartial(KEY_P + i, new DiskCache.Metadata("\"v" + i + "\"", 0, 0));
+        }
+        assertEquals(DiskCache.MAX_PARTIAL_COUNT, mCache.getPartialCount());
+        assertNull(mCache.getPartialMetadata(KEY_P + 0));
+        assertFalse(new File(mDirectory, KEY_P + 0 + DiskCache.PARTIAL_FILE_SUFFIX).exists());
+
+        DiskCache reopened = reopen();
+        assertEquals(DiskCache.MAX_PARTIAL_COUNT, reopened.getPartialCount());
+        assertNotNull(reopened.getPartialMetadata(KEY_P + 1));
+    }
+
+    @Test
+    public void revalidatesAStaleEntryWithOrWithoutValidators() {
+        long now = 1479720011000L;
+        assertFalse(new DiskCache.Metadata("\"v1\"", 0, 0).needsRevalidation(now));
+        assertFalse(new DiskCache.Metadata("\"v1\"", 0, now + 1).needsRevalidation(now));
+        assertTrue(new DiskCache.Metadata("\"v1\"", 0, now).needsRevalidation(now));
+        assertTrue(new DiskCache.Metadata(null, 0, now).needsRevalidation(now));
+        assertFalse(new DiskCache.Metadata(null, 0, now).hasValidator());
+    }
+
+    private DiskCache reopen() throws IOException {
+        mCache.close();
+        mCache = new DiskCache(mDirectory, MAX_SIZE);
+        return mCache;
+    }
+
+    private void put(String key, int size, DiskCache.Metadata metadata) throws IOException {
+        File tempFile = mCache.newTempFile(key);
+        write(tempFile, size);
+        mCache.commit(key, tempFile, metadata);
+    }
+
+    private static void write(File file, int size) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[size]);
+        } finally {
+            output.close();
+        }
+    }
+}
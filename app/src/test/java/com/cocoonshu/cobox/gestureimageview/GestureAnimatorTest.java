@@ -0,0 +1,152 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.RectF;
+
+import com.cocoonshu.cobox.animation.FrameStepper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * JVM test of the fling, the damping and the bounds of the animator, and
+ * of the garbage it leaves per frame. Matrix and RectF are the Java test
+ * ones in android.graphics, which allocate nothing per call as the native
+ * ones don't. The test task runs without escape analysis, which would hide
+ * short lived allocations ART doesn't hide.
+ * @Author Cocoonshu
+ * @Date   2016-12-06 11:05:52
+ */
+public class GestureAnimatorTest {
+
+    private static final int   WARM_UP_FRAMES   = 20000;
+    private static final int   MEASURED_FRAMES  = 100000;
+    private static final float DAMPING_DISTANCE = 100f;
+    private static final int   MAX_FLING_FRAMES = 1000;
+    private static final float ERROR            = 1e-3f;
+
+    private GestureAnimator                 mAnimator   = null;
+    private RectF                           mClipRect   = null;
+    private com.sun.management.ThreadMXBean mThreadBean = null;
+    private Object                          mSink       = null;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+
+        mAnimator = new GestureAnimator();
+        mClipRect = new RectF(0, 0, 1080, 1920);
+        mAnimator.setImageRect(0, 0, 4000, 3000);
+        mAnimator.setDisplayRect(0, 0, 1080, 1920);
+        mAnimator.revert();
+    }
+
+    @Test
+    public void fitsTheImageInTheDisplay() {
+        assertEquals(0.27f, mAnimator.getCurrentSuggestScale(), ERROR);
+        assertEquals(new RectF(0, 555, 1080, 1365), mAnimator.getDrawingOutBound());
+    }
+
+    @Test
+    public void dampsTheScrollOutOfTheConstraint() {
+        RectF constraint = new RectF(mAnimator.getDrawingOutBound());
+        mAnimator.dampingScroll(50, 0, constraint, DAMPING_DISTANCE);
+        assertEquals(-50f, mAnimator.getDrawingOutBound().left, ERROR);
+
+        // 50px out of the right edge, half the damping distance lets 0.1 pass
+        mAnimator.dampingScroll(50, 0, constraint, DAMPING_DISTANCE);
+        assertEquals(-55f, mAnimator.getDrawingOutBound().left, ERROR);
+        assertEquals(555f, mAnimator.getDrawingOutBound().top, ERROR);
+    }
+
+    @Test
+    public void flingsShorterOutOfTheConstraint() {
+        // Never out of a constraint inside the image, only FLING_DECAY slows it down
+        RectF inside   = new RectF(540, 960, 541, 961);
+        float freeLeft = flingToAStop(inside);
+        assertEquals(-301.31f, freeLeft, 0.01f);
+        assertEquals(555f, mAnimator.getDrawingOutBound().top, ERROR);
+        assertEquals(1080f + freeLeft, mAnimator.getDrawingOutBound().right, ERROR);
+
+        // Out of the right edge from the first frame, damped more the further it goes
+        mAnimator.revert();
+        RectF edges      = new RectF(mAnimator.getDrawingOutBound());
+        float dampedLeft = flingToAStop(edges);
+        assertEquals(-26.17f, dampedLeft, 0.01f);
+    }
+
+    @Test
+    public void countsAnAllocation() {
+        long allocatedBytes = getAllocatedBytes();
+        mSink = new float[8];
+        allocatedBytes = getAllocatedBytes() - allocatedBytes;
+        assertTrue(allocatedBytes + " bytes counted for a float[8]", allocatedBytes >= 32);
+    }
+
+    @Test
+    public void allocatesNothingPerFrame() {
+        long frameTime = FrameStepper.REFERENCE_FRAME_NANOS;
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            frameTime += FrameStepper.REFERENCE_FRAME_NANOS;
+            drawFrame(frameTime);
+        }
+
+        long allocatedBytes = getAllocatedBytes();
+        for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+            frameTime += FrameStepper.REFERENCE_FRAME_NANOS;
+            drawFrame(frameTime);
+        }
+        allocatedBytes = getAllocatedBytes() - allocatedBytes;
+
+        // A single object per frame would be several bytes per frame
+        assertTrue(allocatedBytes + " bytes in " + MEASURED_FRAMES + " frames", allocatedBytes < MEASURED_FRAMES);
+    }
+
+    /**
+     * What GestureImageView asks the animator for while a finger scrolls and
+     * flings the image, in the order it does it in one frame
+     */
+    private void drawFrame(long frameTime) {
+        if (!mAnimator.isFlinging()) {
+            mAnimator.fling(4000f, -3000f, mClipRect, DAMPING_DISTANCE);
+        }
+        mAnimator.dampingScroll(1f, -1f, mClipRect, DAMPING_DISTANCE);
+        mAnimator.setDisplayRect(0, 0, 1080, 1920);
+        mAnimator.compute(frameTime);
+        mAnimator.getAnimatedDrawingOutBound();
+        mAnimator.getDrawingOutBound();
+        mAnimator.getCurrentSuggestScale();
+        mAnimator.getImageClipRect(mClipRect);
+        mAnimator.getDegree();
+    }
+
+    /**
+     * Fling leftwards until the fling stops by itself
+     * @return left of the final bounds
+     */
+    private float flingToAStop(RectF constraint) {
+        long frameTime = FrameStepper.REFERENCE_FRAME_NANOS;
+        mAnimator.fling(-1000f, 0f, constraint, DAMPING_DISTANCE);
+        for (int frame = 0; frame < MAX_FLING_FRAMES && mAnimator.isFlinging(); frame++) {
+            frameTime += FrameStepper.REFERENCE_FRAME_NANOS;
+            mAnimator.compute(frameTime);
+        }
+        assertFalse(mAnimator.isFlinging());
+        assertTrue(mAnimator.getLastFlingFrameCount() > 1);
+        return mAnimator.getDrawingOutBound().left;
+    }
+
+    private long getAllocatedBytes() {
+        return mThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
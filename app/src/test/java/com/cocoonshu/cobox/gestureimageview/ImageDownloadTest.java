@@ -0,0 +1,524 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.os.CancellationSignal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM test of ImageDownload against a local HTTP stand-in which supports
+ * ETags, conditional requests and byte ranges
+ * @Author Cocoonshu
+ * @Date   2016-12-05 16:48:03
+ */
+public class ImageDownloadTest {
+
+    private static final int  IMAGE_SIZE              = 64 * 1024;
+    private static final int  THROTTLE_CHUNK_SIZE     = 4 * 1024;
+    private static final int  THROTTLE_BYTES_PER_SEC  = 256 * 1024;
+    private static final long DECODE_MILLIS_PER_CHUNK = 12;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ImageServer mServer = null;
+    private DiskCache   mCache  = null;
+    private String      mUrl    = null;
+    private String      mKey    = null;
+
+    /**
+     * Serves one image, with the validators and the cache control set by the test
+     */
+    private static class ImageServer implements HttpHandler {
+
+        private HttpServer       mServer             = null;
+        private byte[]           mContent            = new byte[0];
+        private String           mETag               = null;
+        private String           mCacheControl       = null;
+        private long             mContentRangeOffset = 0;
+        private int              mRequestCount       = 0;
+        private String           mLastIfNoneMatch    = null;
+        private String           mLastRange          = null;
+        private long             mSentBytes          = 0;
+        private int              mBytesPerSecond     = 0;
+
+        ImageServer() throws IOException {
+            start(0);
+        }
+
+        private void start(int port) throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            mServer.createContext("/", this);
+            mServer.start();
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+        }
+
+        synchronized void setContent(byte[] content, String etag, String cacheControl) {
+            mContent      = content;
+            mETag         = etag;
+            mCacheControl = cacheControl;
+        }
+
+        /**
+         * Answer range requests with a Content-Range shifted by the offset
+         */
+        synchronized void setContentRangeOffset(long offset) {
+            mContentRangeOffset = offset;
+        }
+
+        /**
+         * Send the bodies at a slow link speed, 0 for full speed
+         */
+        synchronized void setThrottle(int bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String range       = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange     = exchange.getRequestHeaders().getFirst("If-Range");
+            mRequestCount++;
+            mLastIfNoneMatch = ifNoneMatch;
+            mLastRange       = range;
+
+            if (mETag != null) {
+                exchange.getResponseHeaders().set("ETag", mETag);
+            }
+            if (mCacheControl != null) {
+                exchange.getResponseHeaders().set("Cache-Control", mCacheControl);
+            }
+            if (ifNoneMatch != null && ifNoneMatch.equals(mETag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            long start = 0;
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(mETag))) {
+                start = Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+                long rangeStart = start + mContentRangeOffset;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + rangeStart + "-" + (mContent.length - 1) + "/" + mContent.length);
+                exchange.sendResponseHeaders(206, mContent.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, mContent.length);
+            }
+            OutputStream body = exchange.getResponseBody();
+            try {
+                for (int offset = (int) start; offset < mContent.length; offset += THROTTLE_CHUNK_SIZE) {
+                    int count = Math.min(THROTTLE_CHUNK_SIZE, mContent.length - offset);
+                    body.write(mContent, offset, count);
+                    body.flush();
+                    mSentBytes += count;
+                    if (mBytesPerSecond > 0) {
+                        Thread.sleep(count * 1000L / mBytesPerSecond);
+                    }
+                }
+            } catch (InterruptedException exp) {
+                Thread.currentThread().interrupt();
+            } catch (IOException exp) {
+                // The client went away, such as an interrupted download
+            } finally {
+                exchange.close();
+            }
+        }
+
+        synchronized int getRequestCount() {
+            return mRequestCount;
+        }
+
+        synchronized String getLastIfNoneMatch() {
+            return mLastIfNoneMatch;
+        }
+
+        synchronized String getLastRange() {
+            return mLastRange;
+        }
+
+        synchronized long getSentBytes() {
+            return mSentBytes;
+        }
+
+        /**
+         * Refuse the connections as an unreachable server does
+         */
+        void stop() {
+            mServer.stop(0);
+        }
+
+        /**
+         * Accept the connections again, on the same url
+         */
+        void restart() throws IOException {
+            int port = mServer.getAddress().getPort();
+            mServer.stop(0);
+            start(port);
+        }
+    }
+
+    /**
+     * A signal never raised, the framework one is a stub in JVM tests
+     */
+    private static class IdleSignal extends CancellationSignal {
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public void throwIfCanceled() {
+            // Never canceled
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new ImageServer();
+        mCache  = new DiskCache(mFolder.newFolder("cache"), 16 * IMAGE_SIZE);
+        mUrl    = mServer.getUrl("/image.jpg");
+        mKey    = DiskCache.hashKey(mUrl);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.close();
+        mServer.stop();
+    }
+
+    @Test
+    public void servesAFreshEntryWithoutRequest() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=3600");
+
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(content, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+        assertEquals("\"v1\"", mCache.getMetadata(mKey).getETag());
+
+        metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(content, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_DISK_HIT, metrics.getCacheOutcome());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void revalidatesAStaleEntryWithA304() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=0");
+        download(new LoadMetrics(mUrl));
+        long sentBytes = mServer.getSentBytes();
+
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(content, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_REVALIDATED, metrics.getCacheOutcome());
+        assertEquals("\"v1\"", mServer.getLastIfNoneMatch());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("a 304 has no body", sentBytes, mServer.getSentBytes());
+    }
+
+    @Test
+    public void replacesAStaleEntryChangedOnTheServer() throws IOException {
+        mServer.setContent(createContent(1), "\"v1\"", "max-age=0");
+        download(new LoadMetrics(mUrl));
+
+        byte[] changed = createContent(2);
+        mServer.setContent(changed, "\"v2\"", "max-age=0");
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(changed, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+        assertEquals("\"v2\"", mCache.getMetadata(mKey).getETag());
+    }
+
+    @Test
+    public void refetchesAStaleEntryWithoutValidators() throws IOException {
+        mServer.setContent(createContent(1), null, "max-age=0");
+        download(new LoadMetrics(mUrl));
+
+        byte[] changed = createContent(2);
+        mServer.setContent(changed, null, "max-age=0");
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(changed, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+        assertNull(mServer.getLastIfNoneMatch());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void neverServesANoStoreResponseAgain() throws IOException {
+        mServer.setContent(createContent(1), "\"v1\"", "no-store");
+        download(new LoadMetrics(mUrl));
+        assertFalse(mCache.getMetadata(mKey).hasValidator());
+
+        byte[] changed = createContent(2);
+        mServer.setContent(changed, "\"v1\"", "no-store");
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(changed, read(download(metrics)));
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+        assertNull("a no-store response is never revalidated", mServer.getLastIfNoneMatch());
+    }
+
+    @Test
+    public void resumesAnInterruptedDownloadWithARange() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=3600");
+        interruptDownload(IMAGE_SIZE / 4);
+        assertEquals(1, mCache.getPartialCount());
+        long partialLength = new File(mCache.getDirectory(), mKey + DiskCache.PARTIAL_FILE_SUFFIX).length();
+        assertTrue(partialLength > 0);
+
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        byte[]      body    = readBody(metrics);
+        assertArrayEquals("the partial bytes are replayed ahead of the range", content, body);
+        assertEquals(LoadMetrics.OUTCOME_RESUMED, metrics.getCacheOutcome());
+        assertEquals("bytes=" + partialLength + "-", mServer.getLastRange());
+        assertEquals(0, mCache.getPartialCount());
+        assertArrayEquals(content, read(mCache.get(mKey)));
+    }
+
+    @Test
+    public void keepsThePartialEntryWhileTheServerIsUnreachable() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=3600");
+        interruptDownload(IMAGE_SIZE / 4);
+        long partialLength = new File(mCache.getDirectory(), mKey + DiskCache.PARTIAL_FILE_SUFFIX).length();
+
+        // The reconnection fails before any response, twice
+        mServer.stop();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ImageDownload download = new ImageDownload(mCache, mKey, mUrl, new LoadMetrics(mUrl));
+            try {
+                download.connect(new IdleSignal());
+                fail("The server is stopped");
+            } catch (IOException exp) {
+                // Expected
+            } finally {
+                download.release();
+            }
+            assertEquals(1, mCache.getPartialCount());
+            assertEquals("\"v1\"", mCache.getPartialMetadata(mKey).getETag());
+            assertEquals(partialLength, new File(mCache.getDirectory(), mKey + DiskCache.PARTIAL_FILE_SUFFIX).length());
+        }
+
+        mServer.restart();
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(content, readBody(metrics));
+        assertEquals(LoadMetrics.OUTCOME_RESUMED, metrics.getCacheOutcome());
+        assertEquals("bytes=" + partialLength + "-", mServer.getLastRange());
+    }
+
+    @Test
+    public void startsOverWhenTheResumedContentChanged() throws IOException {
+        mServer.setContent(createContent(1), "\"v1\"", "max-age=3600");
+        interruptDownload(IMAGE_SIZE / 4);
+
+        // If-Range doesn't match the new ETag, the server sends the whole content
+        byte[] changed = createContent(2);
+        mServer.setContent(changed, "\"v2\"", "max-age=3600");
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(changed, readBody(metrics));
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+        assertArrayEquals(changed, read(mCache.get(mKey)));
+    }
+
+    @Test
+    public void discardsThePartialEntryOnAContentRangeMismatch() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=3600");
+        interruptDownload(IMAGE_SIZE / 4);
+        mServer.setContentRangeOffset(-1);
+
+        ImageDownload download = new ImageDownload(mCache, mKey, mUrl, new LoadMetrics(mUrl));
+        try {
+            download.connect(new IdleSignal());
+            fail("A range which doesn't start at the partial length can't be appended");
+        } catch (IOException exp) {
+            // Expected
+        } finally {
+            download.release();
+        }
+        assertEquals(0, mCache.getPartialCount());
+        assertFalse(new File(mCache.getDirectory(), mKey + DiskCache.PARTIAL_FILE_SUFFIX).exists());
+
+        // The next attempt starts from byte zero
+        mServer.setContentRangeOffset(0);
+        LoadMetrics metrics = new LoadMetrics(mUrl);
+        assertArrayEquals(content, readBody(metrics));
+        assertNull(mServer.getLastRange());
+        assertEquals(LoadMetrics.OUTCOME_DOWNLOADED, metrics.getCacheOutcome());
+    }
+
+    /**
+     * The decoder consumes the body while it downloads, instead of waiting for
+     * the whole file as the replaced download-then-decode path did
+     */
+    @Test
+    public void decodesWhileDownloadingOnAThrottledLink() throws IOException {
+        byte[] content = createContent(1);
+        mServer.setContent(content, "\"v1\"", "max-age=3600");
+        mServer.setThrottle(THROTTLE_BYTES_PER_SEC);
+
+        // Download the whole file, then decode it
+        String        serialUrl   = mServer.getUrl("/serial.jpg");
+        long          serialStart = System.nanoTime();
+        ImageDownload download    = new ImageDownload(mCache, DiskCache.hashKey(serialUrl), serialUrl, new LoadMetrics(serialUrl));
+        File          file        = null;
+        try {
+            assertNull(download.connect(new IdleSignal()));
+            download.openBody(null, new IdleSignal());
+            file = download.commit();
+        } finally {
+            download.release();
+        }
+        InputStream fileInput = new FileInputStream(file);
+        try {
+            assertArrayEquals(content, simulateDecoding(fileInput));
+        } finally {
+            fileInput.close();
+        }
+        long serialMillis = (System.nanoTime() - serialStart) / 1000000;
+
+        // Decode the body as it arrives
+        String pipelinedUrl   = mServer.getUrl("/pipelined.jpg");
+        long   pipelinedStart = System.nanoTime();
+        download = new ImageDownload(mCache, DiskCache.hashKey(pipelinedUrl), pipelinedUrl, new LoadMetrics(pipelinedUrl));
+        try {
+            assertNull(download.connect(new IdleSignal()));
+            assertArrayEquals(content, simulateDecoding(download.openBody(null, new IdleSignal())));
+            assertNotNull(download.commit());
+        } finally {
+            download.release();
+        }
+        long pipelinedMillis = (System.nanoTime() - pipelinedStart) / 1000000;
+
+        assertTrue(pipelinedMillis + " ms pipelined against " + serialMillis + " ms serial",
+                pipelinedMillis < serialMillis * 0.8);
+    }
+
+    /**
+     * Read the content chunk by chunk, with the time a decoder spends on each
+     */
+    private static byte[] simulateDecoding(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[THROTTLE_CHUNK_SIZE];
+        int                   readCount;
+        while ((readCount = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, readCount);
+            try {
+                Thread.sleep(DECODE_MILLIS_PER_CHUNK * readCount / THROTTLE_CHUNK_SIZE);
+            } catch (InterruptedException exp) {
+                throw new IOException(exp);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Fetch the image through the disk cache as ImageLoader does for a file
+     * @return the cached file
+     */
+    private File download(LoadMetrics metrics) throws IOException {
+        ImageDownload download = new ImageDownload(mCache, mKey, mUrl, metrics);
+        try {
+            File cachedFile = download.connect(new IdleSignal());
+            if (cachedFile != null) {
+                return cachedFile;
+            }
+            download.openBody(null, new IdleSignal());
+            File cacheFile = download.commit();
+            assertNotNull(cacheFile);
+            return cacheFile;
+        } finally {
+            download.release();
+        }
+    }
+
+    /**
+     * Fetch the image as ImageLoader does for a streamed decoding
+     * @return the bytes the decoder reads
+     */
+    private byte[] readBody(LoadMetrics metrics) throws IOException {
+        ImageDownload download = new ImageDownload(mCache, mKey, mUrl, metrics);
+        try {
+            assertNull(download.connect(new IdleSignal()));
+            byte[] body = readFully(download.openBody(null, new IdleSignal()), Integer.MAX_VALUE);
+            assertNotNull(download.commit());
+            return body;
+        } finally {
+            download.release();
+        }
+    }
+
+    /**
+     * Read a part of the body and give up, as a cancelled load does
+     */
+    private void interruptDownload(int readCount) throws IOException {
+        ImageDownload download = new ImageDownload(mCache, mKey, mUrl, new LoadMetrics(mUrl));
+        try {
+            assertNull(download.connect(new IdleSignal()));
+            readFully(download.openBody(null, new IdleSignal()), readCount);
+        } finally {
+            download.disconnect();
+            download.release();
+        }
+    }
+
+    private static byte[] createContent(long seed) {
+        byte[] content = new byte[IMAGE_SIZE];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            return readFully(input, Integer.MAX_VALUE);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Read without closing, as the decoder leaves the body open for commit()
+     */
+
+    private static byte[] readFully(InputStream input, int maxCount) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[4096];
+        int                   readCount;
+        while (output.size() < maxCount
+                && (readCount = input.read(buffer, 0, Math.min(buffer.length, maxCount - output.size()))) >= 0) {
+            output.write(buffer, 0, readCount);
+        }
+        return Arrays.copyOf(output.toByteArray(), output.size());
+    }
+}
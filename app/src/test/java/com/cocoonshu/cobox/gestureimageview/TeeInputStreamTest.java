@@ -0,0 +1,141 @@
+package com.cocoonshu.cobox.gestureimageview;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM test of the progress the tee stream reports while a body trickles in
+ * @Author Cocoonshu
+ * @Date   2016-12-05 16:02:18
+ */
+public class TeeInputStreamTest {
+
+    private static final int CONTENT_SIZE  = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE    = 1024;
+    private static final int CHUNKS_PER_MS = 8;
+
+    @Test
+    public void reportsAtMostOnceAFrame() throws IOException {
+        byte[]                content = createContent(CONTENT_SIZE);
+        ByteArrayOutputStream branch  = new ByteArrayOutputStream(CONTENT_SIZE);
+        ProgressCounter       counter = new ProgressCounter();
+        TeeInputStream        input   = new TeeInputStream(
+                new TricklingInputStream(content), branch, content.length, counter, null);
+
+        long   startTime = System.nanoTime();
+        byte[] buffer    = new byte[CHUNK_SIZE];
+        int    chunks    = 0;
+        while (input.read(buffer, 0, buffer.length) >= 0) {
+            chunks++;
+        }
+        long elapsedMs = (System.nanoTime() - startTime) / 1000000;
+
+        // One report per 16 ms frame, plus the first and the final ones
+        assertTrue(counter.mCount + " reports in " + elapsedMs + " ms", counter.mCount <= elapsedMs / 16 + 2);
+        assertTrue(counter.mCount > 1);
+        assertTrue(counter.mCount + " reports for " + chunks + " chunks", counter.mCount * 16 < chunks);
+        assertEquals(1f, counter.mLastProgress, 0f);
+        assertTrue(input.isComplete());
+        assertArrayEquals(content, branch.toByteArray());
+    }
+
+    @Test
+    public void reportsTheEndOfAFastBody() throws IOException {
+        byte[]          content = createContent(CHUNK_SIZE * 4);
+        ProgressCounter counter = new ProgressCounter();
+        TeeInputStream  input   = new TeeInputStream(new ByteArrayInputStream(content), null, content.length, counter, null);
+        input.drain();
+
+        assertEquals(1f, counter.mLastProgress, 0f);
+        assertTrue(counter.mCount <= 2);
+    }
+
+    @Test
+    public void reportsNothingWithoutAContentLength() throws IOException {
+        ProgressCounter counter = new ProgressCounter();
+        TeeInputStream  input   = new TeeInputStream(new ByteArrayInputStream(createContent(CHUNK_SIZE)), null, -1, counter, null);
+        input.drain();
+
+        assertEquals(0, counter.mCount);
+        assertTrue(input.isComplete());
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    /**
+     * Hands out the content one small chunk at a time, at a slow link speed
+     */
+    private static class TricklingInputStream extends InputStream {
+
+        private byte[] mContent  = null;
+        private int    mPosition = 0;
+        private int    mChunks   = 0;
+
+        TricklingInputStream(byte[] content) {
+            mContent = content;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mPosition >= mContent.length) {
+                return -1;
+            }
+            if (++mChunks % CHUNKS_PER_MS == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException exp) {
+                    throw new IOException(exp);
+                }
+            }
+            int count = Math.min(Math.min(length, CHUNK_SIZE), mContent.length - mPosition);
+            System.arraycopy(mContent, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+    }
+
+    private static class ProgressCounter implements ImageLoader.OnFinishedListener {
+
+        private int   mCount        = 0;
+        private float mLastProgress = 0;
+
+        @Override
+        public void onProgress(float progress) {
+            mCount++;
+            mLastProgress = progress;
+        }
+
+        @Override
+        public void onPreview(Bitmap preview) {
+        }
+
+        @Override
+        public void onSuccessed(Bitmap bitmap) {
+        }
+
+        @Override
+        public void onFailed() {
+        }
+    }
+}
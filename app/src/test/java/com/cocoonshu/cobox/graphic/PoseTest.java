@@ -0,0 +1,177 @@
+package com.cocoonshu.cobox.graphic;
+
+import android.graphics.Matrix;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM test of the pose interpolation, against the corner interpolation of
+ * the polygon Vector it replaced, reimplemented here on plain floats
+ * @author Cocoonshu
+ * @date 2016-12-06 14:22:08
+ */
+public class PoseTest {
+
+    private static final float   IMAGE_SCALE       = 0.27f;
+    private static final float   PIVOT_X           = 540f;
+    private static final float   PIVOT_Y           = 960f;
+    private static final float   START_Y           = 555f;
+    private static final int     MAX_FRAMES        = 1000;
+    private static final float[] ROTATIONS         = new float[] {90f, 170f};
+    // Least scale of the corner interpolation through each rotation, relative to IMAGE_SCALE
+    private static final float[] CORNER_MIN_SCALES = new float[] {0.707f, 0.090f};
+    private static final int[]   SETTLE_FRAMES     = new int[] {62, 63};
+
+    @Test
+    public void readsAndWritesASimilarityMatrix() {
+        Matrix matrix = createPose(2f, 30f, 0f, 0f);
+        Pose   pose   = new Pose();
+        pose.set(matrix);
+        assertEquals(2f, pose.getScale(), 1e-5f);
+        assertEquals(30f, pose.getDegree(), 1e-3f);
+
+        Matrix written = new Matrix();
+        pose.toMatrix(written);
+        float[] expected = getValues(matrix);
+        float[] actual   = getValues(written);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(expected[i], actual[i], 1e-5f);
+        }
+    }
+
+    @Test
+    public void rotatesWithoutSkewing() {
+        for (int rotation = 0; rotation < ROTATIONS.length; rotation++) {
+            float   degree  = ROTATIONS[rotation];
+            Pose    current = readPose(createPose(IMAGE_SCALE, 0f, PIVOT_X, PIVOT_Y));
+            Pose    dest    = readPose(createPose(IMAGE_SCALE, degree, PIVOT_X, PIVOT_Y));
+            Matrix  frame   = new Matrix();
+            float[] values  = new float[9];
+            while (current.forward(dest)) {
+                current.toMatrix(frame);
+                frame.getValues(values);
+                float   scaleX = (float) Math.hypot(values[Matrix.MSCALE_X], values[Matrix.MSKEW_Y]);
+                float   scaleY = (float) Math.hypot(values[Matrix.MSKEW_X], values[Matrix.MSCALE_Y]);
+                float   skew   = values[Matrix.MSCALE_X] * values[Matrix.MSKEW_X] + values[Matrix.MSKEW_Y] * values[Matrix.MSCALE_Y];
+                assertEquals(IMAGE_SCALE, scaleX, 1e-5f);
+                assertEquals(IMAGE_SCALE, scaleY, 1e-5f);
+                assertEquals(0f, skew, 1e-6f);
+            }
+
+            // The corner interpolation shrinks the image through the rotation
+            CornerPose corners  = new CornerPose(createPose(IMAGE_SCALE, 0f, PIVOT_X, PIVOT_Y));
+            CornerPose target   = new CornerPose(createPose(IMAGE_SCALE, degree, PIVOT_X, PIVOT_Y));
+            float      minScale = IMAGE_SCALE;
+            while (corners.forward(target)) {
+                minScale = Math.min(minScale, corners.getScaleX());
+            }
+            assertEquals(CORNER_MIN_SCALES[rotation], minScale / IMAGE_SCALE, 1e-3f);
+        }
+    }
+
+    @Test
+    public void rotatesAlongTheShorterWay() {
+        Pose current = readPose(createPose(1f, 170f, 0f, 0f));
+        Pose dest    = readPose(createPose(1f, -170f, 0f, 0f));
+        while (current.forward(dest)) {
+            assertTrue(current.toString(), Math.abs(current.getDegree()) >= 170f - 1e-3f);
+        }
+        assertEquals(-170f, current.getDegree(), 1e-3f);
+    }
+
+    /**
+     * Rotating about the display center moves the translation by hundreds of pixels,
+     * both ways settle when it is within EqualError, so the counts meet
+     */
+    @Test
+    public void settlesNoSlowerThanTheCorners() {
+        for (int rotation = 0; rotation < ROTATIONS.length; rotation++) {
+            float degree     = ROTATIONS[rotation];
+            Pose  current    = readPose(createPose(IMAGE_SCALE, 0f, PIVOT_X, PIVOT_Y));
+            Pose  dest       = readPose(createPose(IMAGE_SCALE, degree, PIVOT_X, PIVOT_Y));
+            int   poseFrames = 1;
+            while (current.forward(dest) && poseFrames < MAX_FRAMES) {
+                poseFrames++;
+            }
+            assertFalse(current.forward(dest));
+
+            CornerPose corners      = new CornerPose(createPose(IMAGE_SCALE, 0f, PIVOT_X, PIVOT_Y));
+            CornerPose target       = new CornerPose(createPose(IMAGE_SCALE, degree, PIVOT_X, PIVOT_Y));
+            int        cornerFrames = 1;
+            while (corners.forward(target) && cornerFrames < MAX_FRAMES) {
+                cornerFrames++;
+            }
+
+            assertTrue(poseFrames + " frames against " + cornerFrames, poseFrames <= cornerFrames);
+            assertEquals(SETTLE_FRAMES[rotation], poseFrames);
+        }
+    }
+
+    private static Pose readPose(Matrix matrix) {
+        Pose pose = new Pose();
+        pose.set(matrix);
+        return pose;
+    }
+
+    /**
+     * The image scaled from the origin, moved down to START_Y, then rotated about the pivot
+     */
+    private static Matrix createPose(float scale, float degree, float pivotX, float pivotY) {
+        double  radians = Math.toRadians(degree);
+        float   cos     = (float) Math.cos(radians);
+        float   sin     = (float) Math.sin(radians);
+        float[] values  = new float[9];
+        values[Matrix.MSCALE_X] = scale * cos;
+        values[Matrix.MSKEW_X]  = -scale * sin;
+        values[Matrix.MTRANS_X] = cos * -pivotX - sin * (START_Y - pivotY) + pivotX;
+        values[Matrix.MSKEW_Y]  = scale * sin;
+        values[Matrix.MSCALE_Y] = scale * cos;
+        values[Matrix.MTRANS_Y] = sin * -pivotX + cos * (START_Y - pivotY) + pivotY;
+        values[Matrix.MPERSP_2] = 1f;
+        Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        return matrix;
+    }
+
+    private static float[] getValues(Matrix matrix) {
+        float[] values = new float[9];
+        matrix.getValues(values);
+        return values;
+    }
+
+    /**
+     * The replaced Vector pose: the origin, the top and the right unit points
+     * mapped by the matrix, each moved straight to its destination
+     */
+    private static class CornerPose {
+
+        private float[] mPolygon = new float[6];
+
+        CornerPose(Matrix matrix) {
+            float[] values = getValues(matrix);
+            mPolygon[0] = values[Matrix.MTRANS_X];
+            mPolygon[1] = values[Matrix.MTRANS_Y];
+            mPolygon[2] = values[Matrix.MTRANS_X] + values[Matrix.MSKEW_X];
+            mPolygon[3] = values[Matrix.MTRANS_Y] + values[Matrix.MSCALE_Y];
+            mPolygon[4] = values[Matrix.MTRANS_X] + values[Matrix.MSCALE_X];
+            mPolygon[5] = values[Matrix.MTRANS_Y] + values[Matrix.MSKEW_Y];
+        }
+
+        boolean forward(CornerPose dest) {
+            boolean allElemEqual = true;
+            for (int i = 0; i < mPolygon.length; i++) {
+                mPolygon[i] = mPolygon[i] + (dest.mPolygon[i] - mPolygon[i]) * Pose.ForwardFactor;
+                allElemEqual &= Math.abs(dest.mPolygon[i] - mPolygon[i]) < Pose.EqualError;
+            }
+            return !allElemEqual;
+        }
+
+        float getScaleX() {
+            return (float) Math.hypot(mPolygon[4] - mPolygon[0], mPolygon[5] - mPolygon[1]);
+        }
+    }
+}